@@ -45,7 +45,8 @@ public class Main extends Game {
     }
 
     /**
-     * Starts the game screen. If hosting, tries to start the server.
+     * Starts the game screen. If hosting, tries to start the server, which
+     * the host then joins in memory.
      *
      * @param multiplayer whether the game should run in multiplayer mode
      * @param hostServer true if this instance should act as the server host
@@ -68,7 +69,7 @@ public class Main extends Game {
             }
         }
 
-        setScreen(new GameScreen(this, multiplayer, serverAddress));
+        setScreen(new GameScreen(this, multiplayer, serverAddress, hostServer ? server : null));
     }
 
     /**
@@ -117,7 +118,7 @@ public class Main extends Game {
 
     /**
      * Resets the game state while keeping players connected.
-     * This is called when a player reaches 10 kills and players choose to play again.
+     * This is called when a player reaches ServerWorld.KILLS_TO_WIN kills and players choose to play again.
      */
     public void resetGame() {
         Screen currentScreen = getScreen();
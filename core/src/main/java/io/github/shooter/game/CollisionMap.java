@@ -0,0 +1,134 @@
+package io.github.shooter.game;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.XmlReader;
+import com.badlogic.gdx.utils.XmlReader.Element;
+
+/**
+ * Reads the collision rectangles out of a Tiled map without loading any
+ * textures. GameMap needs OpenGL for the tileset, but the server only cares
+ * about where players and bullets can't go, so this parses the TMX file
+ * directly.
+ */
+public class CollisionMap {
+
+    /**
+     * The name of the object layer holding the collision shapes
+     */
+    private static final String COLLISION_LAYER = "Collisions";
+
+    /**
+     * Loads the collision rectangles from a TMX file. Looks on disk first and
+     * falls back to the classpath so it also works from a packaged jar.
+     *
+     * @param fileName path of the TMX file, e.g. "Collisions.tmx"
+     * @return rectangles in world coordinates (y up, same as TmxMapLoader)
+     * @throws IOException if the file can't be found or read
+     */
+    public static Array<Rectangle> load(String fileName) throws IOException {
+        InputStream in;
+        File file = new File(fileName);
+        if (file.exists()) {
+            in = new FileInputStream(file);
+        } else {
+            in = CollisionMap.class.getResourceAsStream("/" + fileName);
+            if (in == null) {
+                throw new IOException("Could not find collision map: " + fileName);
+            }
+        }
+
+        try {
+            return parse(new XmlReader().parse(in));
+        } catch (RuntimeException e) {
+            throw new IOException("Could not parse collision map: " + fileName, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Pulls the collidable rectangles and polygon bounds out of the parsed map.
+     * Tiled puts y = 0 at the top, so everything is flipped to match the
+     * bottom-left origin the game uses.
+     *
+     * @param root the root map element
+     * @return list of obstacles
+     */
+    private static Array<Rectangle> parse(Element root) {
+        Array<Rectangle> obstacles = new Array<>();
+        float mapHeight = root.getIntAttribute("height", 0) * root.getIntAttribute("tileheight", 0);
+
+        for (Element group : root.getChildrenByName("objectgroup")) {
+            if (!COLLISION_LAYER.equals(group.getAttribute("name", null))) {
+                continue;
+            }
+            for (Element object : group.getChildrenByName("object")) {
+                if (!isCollidable(object) || object.getChildByName("ellipse") != null) {
+                    continue;
+                }
+
+                float x = object.getFloatAttribute("x", 0);
+                float y = object.getFloatAttribute("y", 0);
+                Element polygon = object.getChildByName("polygon");
+
+                if (polygon != null) {
+                    obstacles.add(polygonBounds(polygon.getAttribute("points", ""), x, y, mapHeight));
+                } else {
+                    float width = object.getFloatAttribute("width", 0);
+                    float height = object.getFloatAttribute("height", 0);
+                    obstacles.add(new Rectangle(x, mapHeight - y - height, width, height));
+                }
+            }
+        }
+        return obstacles;
+    }
+
+    /**
+     * Checks the optional "collidable" property, which defaults to true.
+     *
+     * @param object the map object element
+     * @return false only if the property is set to false
+     */
+    private static boolean isCollidable(Element object) {
+        Element properties = object.getChildByName("properties");
+        if (properties == null) {
+            return true;
+        }
+        for (Element property : properties.getChildrenByName("property")) {
+            if ("collidable".equals(property.getAttribute("name", null))) {
+                return Boolean.parseBoolean(property.getAttribute("value", "true"));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Works out the bounding rectangle of a Tiled polygon.
+     *
+     * @param points the "x,y x,y ..." point list relative to the object
+     * @param originX object x position
+     * @param originY object y position
+     * @param mapHeight height of the map in pixels, used to flip y
+     * @return bounding rectangle in world coordinates
+     */
+    private static Rectangle polygonBounds(String points, float originX, float originY, float mapHeight) {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (String point : points.trim().split("\\s+")) {
+            String[] coords = point.split(",");
+            float px = originX + Float.parseFloat(coords[0]);
+            float py = mapHeight - (originY + Float.parseFloat(coords[1]));
+            minX = Math.min(minX, px);
+            maxX = Math.max(maxX, px);
+            minY = Math.min(minY, py);
+            maxY = Math.max(maxY, py);
+        }
+        return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+}
@@ -86,19 +86,17 @@ public class EnemyPlayer {
     }
 
     /**
-     * Updates position, health, alive status, plus username and kills. Also
-     * syncs with other players.
+     * Updates position, health, alive status, plus kills. The username is set
+     * separately since it only changes when the player joins.
      *
      * @param x New X coordinate.
      * @param y New Y coordinate.
      * @param health Current health value.
      * @param alive Whether the enemy is alive.
-     * @param username Enemy's username.
      * @param kills Number of kills.
      */
-    public void update(float x, float y, float health, boolean alive, String username, int kills) {
+    public void update(float x, float y, float health, boolean alive, int kills) {
         update(x, y, health, alive);
-        this.username = username;
         this.kills = kills;
     }
 
@@ -1,5 +1,6 @@
 package io.github.shooter.game;
 
+import java.util.Collection;
 import java.util.Map;
 
 import com.badlogic.gdx.Gdx;
@@ -142,8 +143,26 @@ public class Player {
      */
     public void update(float delta, float screenW, float screenH, Array<Rectangle> obstacles) {
         getCurrentGun().update();
+        move(hitbox, velocity.x, velocity.y, delta, screenW, screenH, obstacles);
+    }
 
-        Vector2 move = new Vector2(velocity).scl(delta);
+    /**
+     * Moves a hitbox by a velocity for one step, sliding along obstacles and
+     * staying inside the screen. This is the movement code shared by the
+     * local player, the server and the client's replay of unacknowledged
+     * inputs, so all three end up in the same place.
+     *
+     * @param hitbox hitbox to move
+     * @param velocityX x velocity (units per second)
+     * @param velocityY y velocity (units per second)
+     * @param delta length of the step (seconds)
+     * @param screenW screen width (for boundary checks)
+     * @param screenH screen height (for boundary checks)
+     * @param obstacles obstacles to collide with
+     */
+    public static void move(Circle hitbox, float velocityX, float velocityY, float delta,
+            float screenW, float screenH, Array<Rectangle> obstacles) {
+        Vector2 move = new Vector2(velocityX, velocityY).scl(delta);
 
         hitbox.x += move.x;
         for (Rectangle r : obstacles) {
@@ -322,7 +341,32 @@ public class Player {
     public void respawn(float w, float h, Map<Integer, ?> otherPlayers, Array<Rectangle> obstacles) {
         alive = true;
         health = 200f;
+        placeAtSpawn(hitbox, w, h, otherPlayers != null ? otherPlayers.values() : null, obstacles);
+    }
 
+    /**
+     * Respawns the player at a spot someone else picked, like the server.
+     *
+     * @param x x position to respawn at
+     * @param y y position to respawn at
+     */
+    public void respawnAt(float x, float y) {
+        alive = true;
+        health = 200f;
+        hitbox.setPosition(x, y);
+    }
+
+    /**
+     * Moves a hitbox to a random spot that isn't inside an obstacle and, if
+     * possible, isn't too close to another player.
+     *
+     * @param hitbox hitbox to move
+     * @param w width of the playable area
+     * @param h height of the playable area
+     * @param otherPlayers hitboxes of other players to avoid, may be null
+     * @param obstacles array of obstacles to avoid spawning inside
+     */
+    public static void placeAtSpawn(Circle hitbox, float w, float h, Collection<?> otherPlayers, Array<Rectangle> obstacles) {
         for (int attempt = 0; attempt < MAX_RESPAWN_ATTEMPTS; attempt++) {
             float x = 100 + (float) Math.random() * (w - 200);
             float y = 100 + (float) Math.random() * (h - 200);
@@ -340,7 +384,7 @@ public class Player {
             }
 
             if (otherPlayers != null && !otherPlayers.isEmpty()) {
-                for (Object playerObj : otherPlayers.values()) {
+                for (Object playerObj : otherPlayers) {
                     if (playerObj instanceof Circle) {
                         Circle otherHitbox = (Circle) playerObj;
                         float distance = Vector2.dst(x, y, otherHitbox.x, otherHitbox.y);
@@ -26,4 +26,9 @@ public class AssaultRifle extends Gun {
         this.gunMaxLength = 1.5f;
         this.gunThickness = 0.4f;
     }
+
+    @Override
+    public GunFactory.GunType getType() {
+        return GunFactory.GunType.ASSAULT_RIFLE;
+    }
 }
@@ -180,6 +180,14 @@ public abstract class Gun {
         return gunThickness;
     }
 
+    /**
+     * Returns which kind of gun this is, used to tell other players what was
+     * fired without sending its stats.
+     *
+     * @return the gun type
+     */
+    public abstract GunFactory.GunType getType();
+
     /**
      * Returns the bullet speed.
      *
@@ -198,6 +206,15 @@ public abstract class Gun {
         return spread;
     }
 
+    /**
+     * Returns the rate of fire.
+     *
+     * @return rounds per second
+     */
+    public float getFireRate() {
+        return fireRate;
+    }
+
     /**
      * Returns the bullet damage.
      *
@@ -14,6 +14,25 @@ public class GunFactory {
         SUBMACHINE_GUN
     }
 
+    /**
+     * One gun of each type, only used to look up stats
+     */
+    private static final Gun[] PROTOTYPES = new Gun[GunType.values().length];
+
+    /**
+     * Returns a shared gun of the given type for reading its stats, like when
+     * rebuilding someone else's shot. Don't fire or reload it.
+     *
+     * @param type the type of gun
+     * @return the shared gun
+     */
+    public static synchronized Gun getStats(GunType type) {
+        if (PROTOTYPES[type.ordinal()] == null) {
+            PROTOTYPES[type.ordinal()] = createGun(type);
+        }
+        return PROTOTYPES[type.ordinal()];
+    }
+
     /**
      * Creates a gun of the specified type.
      *
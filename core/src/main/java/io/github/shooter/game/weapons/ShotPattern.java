@@ -0,0 +1,63 @@
+package io.github.shooter.game.weapons;
+
+import com.badlogic.gdx.math.MathUtils;
+
+import io.github.shooter.game.Bullet;
+
+/**
+ * Works out the random spread of a shot from who fired it and the shot's
+ * number instead of a shared random generator. Every player's shots are their
+ * own random stream, and shot n always comes out the same, so anyone who
+ * knows the shooter, gun, shot number, origin and aim can rebuild the exact
+ * same bullet without being sent its direction.
+ */
+public class ShotPattern {
+
+    /**
+     * Works out the angle a shot actually flies at.
+     *
+     * @param shooterId ID of the player who fired, seeds their stream
+     * @param shot number of the shot in the shooter's stream
+     * @param aimDegrees where the shooter was aiming
+     * @param spread the gun's spread in degrees
+     * @return the angle in degrees, within half the spread of the aim
+     */
+    public static float angle(int shooterId, int shot, float aimDegrees, float spread) {
+        if (spread <= 0) {
+            return aimDegrees;
+        }
+        return aimDegrees + (random(shooterId, shot) - 0.5f) * spread;
+    }
+
+    /**
+     * Creates the bullet for one shot.
+     *
+     * @param shooterId ID of the player who fired
+     * @param gun the gun fired, only its stats are used
+     * @param shot number of the shot in the shooter's stream
+     * @param x x position the shot was fired from
+     * @param y y position the shot was fired from
+     * @param aimDegrees where the shooter was aiming
+     * @return the bullet
+     */
+    public static Bullet createBullet(int shooterId, Gun gun, int shot, float x, float y, float aimDegrees) {
+        float angle = angle(shooterId, shot, aimDegrees, gun.getSpread()) * MathUtils.degreesToRadians;
+        float speed = gun.getBulletSpeed();
+        Bullet bullet = new Bullet(x, y, MathUtils.cos(angle) * speed, MathUtils.sin(angle) * speed, shooterId);
+        bullet.setDamage(gun.getDamage());
+        bullet.setRadius(Math.min(5f + (gun.getDamage() / 10f), 10f));
+        return bullet;
+    }
+
+    /**
+     * Returns a number between 0 and 1 that only depends on the shooter and
+     * the shot, by mixing the two with the SplitMix64 finalizer.
+     */
+    private static float random(int shooterId, int shot) {
+        long z = ((long) shooterId << 32 | (shot & 0xFFFFFFFFL)) + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 40) * 0x1.0p-24f;
+    }
+}
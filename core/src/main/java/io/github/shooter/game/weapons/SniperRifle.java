@@ -26,4 +26,9 @@ public class SniperRifle extends Gun {
         this.gunMaxLength = 2.2f;
         this.gunThickness = 0.3f;
     }
+
+    @Override
+    public GunFactory.GunType getType() {
+        return GunFactory.GunType.SNIPER_RIFLE;
+    }
 }
@@ -26,4 +26,9 @@ public class SubmachineGun extends Gun {
         this.gunMaxLength = 1.2f;
         this.gunThickness = 0.5f;
     }
+
+    @Override
+    public GunFactory.GunType getType() {
+        return GunFactory.GunType.SUBMACHINE_GUN;
+    }
 }
@@ -1,19 +1,28 @@
 package io.github.shooter.multiplayer;
 
 import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.FrameworkMessage;
 import com.esotericsoftware.kryonet.Listener;
 
+import io.github.shooter.game.Bullet;
+import io.github.shooter.game.weapons.Gun;
+import io.github.shooter.game.weapons.GunFactory;
+import io.github.shooter.game.weapons.ShotPattern;
 import io.github.shooter.multiplayer.GameClient.PlayerData;
-import io.github.shooter.multiplayer.Network.BulletUpdate;
+import io.github.shooter.multiplayer.Network.MessageBatch;
 import io.github.shooter.multiplayer.Network.PingResponse;
 import io.github.shooter.multiplayer.Network.PlayerDisconnected;
 import io.github.shooter.multiplayer.Network.PlayerHit;
-import io.github.shooter.multiplayer.Network.PlayerUpdate;
+import io.github.shooter.multiplayer.Network.PlayerJoined;
+import io.github.shooter.multiplayer.Network.ShotFired;
+import io.github.shooter.multiplayer.Network.WorldSnapshot;
 
 /**
  * Listens for server messages and updates the GameClient accordingly. Handles
- * player updates, bullet events, player hits, ping responses, and player
- * disconnections.
+ * world snapshots, bullet events, player hits, ping responses, and player
+ * disconnections. Hits and kills always come from the server. Messages arrive
+ * on Kryonet's thread but are only queued there, they are applied on the
+ * render thread by processEvents so game state never needs a lock.
  */
 public class ClientListener extends Listener {
 
@@ -30,6 +39,15 @@ public class ClientListener extends Listener {
      * Listener for player hit events
      */
     private PlayerHitListener playerHitListener;
+    /**
+     * Listener for kills made by this client
+     */
+    private KillListener killListener;
+    /**
+     * Messages received but not yet applied, from Kryonet's thread to the
+     * render thread
+     */
+    private final SpscQueue<Object> events = new SpscQueue<>();
 
     /**
      * Creates a listener that will update the given GameClient.
@@ -60,25 +78,76 @@ public class ClientListener extends Listener {
     }
 
     /**
-     * Handles received network objects and updates game state accordingly.
+     * Sets the listener for kills made by this client.
+     *
+     * @param listener Listener called when the server confirms a kill by this
+     * client.
+     */
+    public void setKillListener(KillListener listener) {
+        this.killListener = listener;
+    }
+
+    /**
+     * Queues received network objects for the render thread. Batches are
+     * unpacked so each message is queued in order. Ping responses are handled
+     * right away so the measured ping doesn't include waiting for a frame.
      */
     @Override
     public void received(Connection connection, Object object) {
-        if (object instanceof PlayerUpdate) {
-            PlayerUpdate update = (PlayerUpdate) object;
-            gameClient.updateOtherPlayer(update.id, update.x, update.y, update.health, update.alive, update.rotation, update.username, update.kills);
-        } else if (object instanceof BulletUpdate) {
-            BulletUpdate update = (BulletUpdate) object;
-            if (update.playerId != gameClient.getClientId() && bulletListener != null) {
-                bulletListener.onBulletFired(update.playerId, update.x, update.y, update.dirX, update.dirY, update.damage);
+        if (object instanceof MessageBatch) {
+            for (Object message : ((MessageBatch) object).messages) {
+                received(connection, message);
+            }
+        } else if (object instanceof PingResponse) {
+            PingResponse response = (PingResponse) object;
+            gameClient.receivePingResponse(response.timestamp, response.serverTime);
+        } else if (!(object instanceof FrameworkMessage)) {
+            events.offer(object);
+        }
+    }
+
+    /**
+     * Applies every message queued since the last call. Call on the render
+     * thread at the start of each frame.
+     */
+    public void processEvents() {
+        Object object;
+        while ((object = events.poll()) != null) {
+            handle(object);
+        }
+    }
+
+    /**
+     * Updates game state for one message from the server.
+     *
+     * @param object the message
+     */
+    private void handle(Object object) {
+        if (object instanceof WorldSnapshot) {
+            gameClient.receiveSnapshot((WorldSnapshot) object);
+        } else if (object instanceof ShotFired) {
+            ShotFired shot = (ShotFired) object;
+            if (shot.playerId != gameClient.getClientId() && bulletListener != null
+                    && shot.weapon < GunFactory.GunType.values().length) {
+                Gun gun = GunFactory.getStats(GunFactory.GunType.values()[shot.weapon]);
+                for (int i = 0; i < shot.count; i++) {
+                    bulletListener.onBulletFired(ShotPattern.createBullet(shot.playerId, gun,
+                            shot.sequence + i, shot.x, shot.y, shot.aim));
+                }
             }
         } else if (object instanceof PlayerHit) {
             PlayerHit hit = (PlayerHit) object;
             if (hit.targetId == gameClient.getClientId() && playerHitListener != null) {
-                playerHitListener.onPlayerHit(hit.sourceId, hit.damage);
+                playerHitListener.onPlayerHit(hit.sourceId, hit.damage, hit.fatal);
+            } else if (hit.targetId != gameClient.getClientId()) {
+                gameClient.applyHitToOtherPlayer(hit.targetId, hit.damage, hit.fatal);
             }
 
-            if (hit.fatal && hit.sourceId != gameClient.getClientId()) {
+            if (hit.fatal && hit.sourceId == gameClient.getClientId()) {
+                if (killListener != null) {
+                    killListener.onKill(hit.targetId, hit.newKillCount);
+                }
+            } else if (hit.fatal) {
                 PlayerData killerData = gameClient.getOtherPlayers().get(hit.sourceId);
                 if (killerData != null) {
                     if (hit.newKillCount > 0) {
@@ -88,9 +157,9 @@ public class ClientListener extends Listener {
                     }
                 }
             }
-        } else if (object instanceof PingResponse) {
-            PingResponse response = (PingResponse) object;
-            gameClient.receivePingResponse(response.timestamp);
+        } else if (object instanceof PlayerJoined) {
+            PlayerJoined joined = (PlayerJoined) object;
+            gameClient.setUsername(joined.id, joined.username);
         } else if (object instanceof PlayerDisconnected) {
             PlayerDisconnected disconnected = (PlayerDisconnected) object;
             gameClient.removePlayer(disconnected.id);
@@ -102,7 +171,7 @@ public class ClientListener extends Listener {
      */
     public interface BulletListener {
 
-        void onBulletFired(int playerId, float x, float y, float dirX, float dirY, float damage);
+        void onBulletFired(Bullet bullet);
     }
 
     /**
@@ -110,6 +179,15 @@ public class ClientListener extends Listener {
      */
     public interface PlayerHitListener {
 
-        void onPlayerHit(int sourceId, float damage);
+        void onPlayerHit(int sourceId, float damage, boolean fatal);
+    }
+
+    /**
+     * Listener interface for receiving kills the server credited to this
+     * player.
+     */
+    public interface KillListener {
+
+        void onKill(int targetId, int newKillCount);
     }
 }
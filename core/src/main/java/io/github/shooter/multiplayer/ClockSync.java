@@ -0,0 +1,147 @@
+package io.github.shooter.multiplayer;
+
+/**
+ * Estimates the server's clock, the round trip time and how much the round
+ * trip time jumps around, from ping round trips the way NTP does. Each ping
+ * carries the local send time and comes back with the server's time. The
+ * offset is taken from the fastest of the last few pings, since a slow round
+ * trip was probably held up on one leg and so has a skewed midpoint. The
+ * round trip time and jitter are smoothed like TCP's retransmit timer.
+ */
+public class ClockSync {
+
+    /**
+     * How many of the latest pings the offset is picked from
+     */
+    public static final int SAMPLES = 8;
+    /**
+     * How far the offset can be off before it is reset instead of eased
+     * towards (ms)
+     */
+    private static final float MAX_OFFSET_STEP = 500f;
+
+    /**
+     * Round trip times of the latest pings (ms)
+     */
+    private final long[] rtts = new long[SAMPLES];
+    /**
+     * Offsets the latest pings measured (ms)
+     */
+    private final float[] offsets = new float[SAMPLES];
+    /**
+     * Index the next ping is written to
+     */
+    private int head = 0;
+    /**
+     * Number of pings stored
+     */
+    private int count = 0;
+    /**
+     * Estimate of server time minus local time (ms)
+     */
+    private float offset;
+    /**
+     * Smoothed round trip time (ms)
+     */
+    private float smoothedRtt;
+    /**
+     * Smoothed difference between each round trip time and the average (ms)
+     */
+    private float jitter;
+    /**
+     * Fastest round trip seen so far (ms)
+     */
+    private long minRtt = Long.MAX_VALUE;
+
+    /**
+     * Adds a ping round trip.
+     *
+     * @param sent local time the ping was sent (ms)
+     * @param serverTime server time the ping was answered at (ms)
+     * @param received local time the answer arrived (ms)
+     */
+    public synchronized void addSample(long sent, long serverTime, long received) {
+        long rtt = Math.max(0, received - sent);
+        // the server answered roughly halfway through the round trip
+        float sampleOffset = serverTime + rtt / 2f - received;
+
+        if (count == 0) {
+            smoothedRtt = rtt;
+            jitter = rtt / 2f;
+        } else {
+            jitter += (Math.abs(rtt - smoothedRtt) - jitter) * 0.25f;
+            smoothedRtt += (rtt - smoothedRtt) * 0.125f;
+        }
+        minRtt = Math.min(minRtt, rtt);
+
+        rtts[head] = rtt;
+        offsets[head] = sampleOffset;
+        head = (head + 1) % SAMPLES;
+        count = Math.min(count + 1, SAMPLES);
+
+        int best = 0;
+        for (int i = 1; i < count; i++) {
+            if (rtts[i] < rtts[best]) {
+                best = i;
+            }
+        }
+        if (count == 1 || Math.abs(offsets[best] - offset) > MAX_OFFSET_STEP) {
+            offset = offsets[best];
+        } else {
+            offset += (offsets[best] - offset) * 0.25f;
+        }
+    }
+
+    /**
+     * Returns whether any ping has come back yet.
+     */
+    public synchronized boolean hasSample() {
+        return count > 0;
+    }
+
+    /**
+     * Returns whether enough pings have come back for a good estimate.
+     */
+    public synchronized boolean isSettled() {
+        return count >= SAMPLES;
+    }
+
+    /**
+     * Works out the server's time.
+     *
+     * @param localTime local time (ms)
+     * @return server time at that moment (ms)
+     */
+    public synchronized long toServerTime(long localTime) {
+        return localTime + Math.round(offset);
+    }
+
+    /**
+     * Returns the estimate of server time minus local time (ms).
+     */
+    public synchronized float getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the smoothed round trip time (ms).
+     */
+    public synchronized float getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    /**
+     * Returns how much the round trip time varies (ms).
+     */
+    public synchronized float getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Returns the fastest round trip seen, or Long.MAX_VALUE if there hasn't
+     * been one.
+     */
+    public synchronized long getMinRtt() {
+        return minRtt;
+    }
+}
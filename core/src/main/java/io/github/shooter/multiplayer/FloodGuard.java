@@ -0,0 +1,74 @@
+package io.github.shooter.multiplayer;
+
+import io.github.shooter.game.weapons.GunFactory;
+import io.github.shooter.multiplayer.Network.JoinRequest;
+import io.github.shooter.multiplayer.Network.PingRequest;
+import io.github.shooter.multiplayer.Network.PlayerUpdate;
+import io.github.shooter.multiplayer.Network.ShotFired;
+import io.github.shooter.multiplayer.Network.SnapshotAck;
+
+/**
+ * Rate limits what one client can send, with a token bucket per message
+ * type sized a bit above what an honest client sends. Anything over the
+ * limit, and any message type a client has no reason to send, is refused
+ * before it costs the server more than this check. Only used on the thread
+ * its connection's messages arrive on.
+ */
+public class FloodGuard {
+
+    /**
+     * How much faster than an honest client a client may send before
+     * messages are dropped, to allow for timing jitter
+     */
+    public static final float SLACK = 1.5f;
+
+    /**
+     * Seconds of firing at the current gun's rate. A shot costs one over
+     * its gun's fire rate, so a client can't shoot faster than its gun
+     */
+    private final TokenBucket shots = new TokenBucket(1f, 1.25f);
+    /**
+     * Player updates, sent at up to SEND_RATE a second
+     */
+    private final TokenBucket updates = new TokenBucket(Network.SEND_RATE, Network.SEND_RATE * SLACK);
+    /**
+     * Snapshot acks, one per snapshot
+     */
+    private final TokenBucket acks = new TokenBucket(Network.TICK_RATE, Network.TICK_RATE * SLACK);
+    /**
+     * Pings, a few a second while the clock sync settles
+     */
+    private final TokenBucket pings = new TokenBucket(10, 10);
+    /**
+     * Join requests, normally only one
+     */
+    private final TokenBucket joins = new TokenBucket(3, 1f / 10);
+
+    /**
+     * Checks whether a message is within this client's limits and takes it
+     * out of the matching bucket.
+     *
+     * @param message the message received
+     * @return true if it should be handled, false to drop it
+     */
+    public boolean allow(Object message) {
+        if (message instanceof PlayerUpdate) {
+            return updates.tryTake(1);
+        } else if (message instanceof SnapshotAck) {
+            return acks.tryTake(1);
+        } else if (message instanceof ShotFired) {
+            ShotFired shot = (ShotFired) message;
+            if (shot.weapon >= GunFactory.GunType.values().length || shot.count < 1) {
+                return false;
+            }
+            float fireRate = GunFactory.getStats(GunFactory.GunType.values()[shot.weapon]).getFireRate();
+            return shots.tryTake(shot.count / fireRate);
+        } else if (message instanceof PingRequest) {
+            return pings.tryTake(1);
+        } else if (message instanceof JoinRequest) {
+            return joins.tryTake(1);
+        }
+        // hits, snapshots and anything else only ever come from the server
+        return false;
+    }
+}
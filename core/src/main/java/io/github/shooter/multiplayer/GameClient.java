@@ -1,29 +1,86 @@
 package io.github.shooter.multiplayer;
 
 import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import com.badlogic.gdx.math.Circle;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.TimeUtils;
 import com.esotericsoftware.kryonet.Client;
+import com.esotericsoftware.kryonet.Connection;
 
 import io.github.shooter.game.EnemyPlayer;
-import io.github.shooter.multiplayer.Network.BulletUpdate;
+import io.github.shooter.game.Player;
+import io.github.shooter.game.weapons.GunFactory;
+import io.github.shooter.multiplayer.Network.InputCommand;
+import io.github.shooter.multiplayer.Network.JoinRequest;
 import io.github.shooter.multiplayer.Network.PingRequest;
-import io.github.shooter.multiplayer.Network.PlayerHit;
+import io.github.shooter.multiplayer.Network.PlayerState;
 import io.github.shooter.multiplayer.Network.PlayerUpdate;
+import io.github.shooter.multiplayer.Network.ShotFired;
+import io.github.shooter.multiplayer.Network.SnapshotAck;
+import io.github.shooter.multiplayer.Network.WorldSnapshot;
 
 /**
  * Handles client-side connection to game server, sending and receiving
- * multiplayer data.
+ * multiplayer data. Connects over the network with Kryonet, or in memory to
+ * a server in the same JVM.
  */
 public class GameClient {
 
     /**
-     * The client used to connect to the game server
+     * The Kryonet client used to connect to the game server, null for a
+     * loopback connection
      */
     private Client client;
+    /**
+     * The connection messages are sent on, the Kryonet client or a loopback
+     * connection
+     */
+    private Connection connection;
+    /**
+     * Calls the listener for a loopback connection, null over the network
+     */
+    private ExecutorService loopbackThread;
+    /**
+     * Collects outgoing messages so each frame sends at most one batch
+     */
+    private MessageBatcher batcher;
+    /**
+     * Listens for server messages and queues them for the render thread
+     */
+    private final ClientListener listener = new ClientListener(this);
+    /**
+     * Message counts by type and direction, also over JMX. Null for a
+     * loopback client, whose messages are never serialized
+     */
+    private final NetworkMetrics metrics;
+    /**
+     * Shots fired since the last send, merged while they can be
+     */
+    private ShotFired pendingShot;
+    /**
+     * Whether connection info is printed to the console
+     */
+    private final boolean showMessages;
+    /**
+     * Set when a connect in progress has been given up on
+     */
+    private volatile boolean cancelled = false;
+    /**
+     * How long each Kryonet connect waits for the server (ms). Connecting
+     * makes two tries when UDP turns out to be blocked
+     */
+    public static final int CONNECT_TIMEOUT = 5000;
     /**
      * The unique ID
      */
@@ -33,6 +90,14 @@ public class GameClient {
      * Stores data about other players in the game, indexed by their IDs
      */
     private Map<Integer, PlayerData> otherPlayers = new HashMap<>();
+    /**
+     * Rebuilds full world state from the server's delta snapshots
+     */
+    private final SnapshotDecoder snapshotDecoder = new SnapshotDecoder();
+    /**
+     * Usernames of the other players by ID, filled in by the join handshake
+     */
+    private final Map<Integer, String> usernames = new HashMap<>();
     /**
      * The radius of the player hitbox
      */
@@ -43,13 +108,93 @@ public class GameClient {
      */
     private long lastPingSent;
     /**
-     * The current ping in milliseconds
+     * Server clock, round trip time and jitter estimated from pings
      */
-    private long currentPing = 0;
+    private final ClockSync clock = new ClockSync();
     /**
      * Interval in milliseconds for sending pings
      */
     private static final long PING_INTERVAL = 1000;
+    /**
+     * Interval in milliseconds for sending pings until the clock estimate
+     * has settled
+     */
+    private static final long FAST_PING_INTERVAL = 200;
+    /**
+     * Sequence number of the last player update sent
+     */
+    private int updateSequence = 0;
+    /**
+     * The latest local player state, waiting for the next send tick
+     */
+    private PlayerUpdate pendingUpdate;
+    /**
+     * Whether the local player was alive in the last update sent
+     */
+    private boolean lastSentAlive = true;
+    /**
+     * Seconds since the last player update was sent
+     */
+    private float sendTimer = 0;
+    /**
+     * Player updates sent per second right now
+     */
+    private float sendRate = Network.SEND_RATE;
+    /**
+     * Send rate to climb back up to once the connection is clear
+     */
+    private int maxSendRate = Network.SEND_RATE;
+    /**
+     * How far the smoothed ping can climb over the best ping before it
+     * counts as congested (ms)
+     */
+    private static final long CONGESTION_PING = 100;
+    /**
+     * How many updates per second the rate climbs back each second
+     */
+    private static final float SEND_RATE_RECOVERY = 2f;
+    /**
+     * Movement inputs the server hasn't acknowledged yet, oldest first
+     */
+    private final ArrayDeque<InputCommand> pendingInputs = new ArrayDeque<>();
+    /**
+     * Sequence number of the last movement input recorded
+     */
+    private int inputSequence = 0;
+    /**
+     * Most inputs kept waiting for an acknowledgement, two seconds worth
+     */
+    private static final int MAX_PENDING_INPUTS = Network.INPUT_RATE * 2;
+    /**
+     * Newest snapshot that told us where the server has the local player
+     */
+    private WorldSnapshot latestInputAck;
+    /**
+     * The snapshot the local player was last corrected against
+     */
+    private WorldSnapshot reconciledAck;
+    /**
+     * Default time other players are drawn behind the newest snapshot (ms),
+     * enough to cover one lost or late snapshot
+     */
+    public static final long DEFAULT_INTERPOLATION_DELAY = 3 * 1000L / Network.TICK_RATE;
+    /**
+     * How far behind the server's clock other players are drawn (ms)
+     */
+    private long interpolationDelay = DEFAULT_INTERPOLATION_DELAY;
+    /**
+     * Rough estimate of server time minus local time from snapshot arrival
+     * times (ms), only used until the first ping comes back
+     */
+    private float serverTimeOffset;
+    /**
+     * Whether a snapshot has been received to estimate the offset from
+     */
+    private boolean hasServerTime = false;
+    /**
+     * Reused output of the interpolation buffers
+     */
+    private final float[] sample = new float[3];
 
     /**
      * Connects to server at given address with messages shown by default. The
@@ -64,31 +209,76 @@ public class GameClient {
     }
 
     /**
-     * Connects to server at given address.
+     * Connects to server at given address. Blocks until connected, so don't
+     * call this on the render thread, see connect.
      *
      * @param serverAddress IP or hostname of server to connect to
      * @param showMessages if true, prints connection info to console
      * @throws IOException if connection fails
      */
     public GameClient(String serverAddress, boolean showMessages) throws IOException {
-        if (showMessages) {
-            System.out.println("Attempting to connect to: " + serverAddress);
-        }
+        this(showMessages);
+        connect(serverAddress);
+    }
 
-        client = new Client(32768, 32768);
+    /**
+     * Sets up a client that isn't connected yet. Cheap enough for the render
+     * thread, call connect afterwards from another thread.
+     *
+     * @param showMessages if true, prints connection info to console
+     */
+    public GameClient(boolean showMessages) {
+        this.showMessages = showMessages;
+        metrics = new NetworkMetrics("client");
+        client = new Client(Network.WRITE_BUFFER_SIZE, Network.OBJECT_BUFFER_SIZE, new MeteredSerialization(metrics));
+        connection = client;
+        batcher = new MessageBatcher(client);
         Network.register(client.getKryo());
-        client.addListener(new ClientListener(this));
+        client.addListener(listener);
         client.start();
+    }
+
+    /**
+     * Connects to a server in the same JVM without the network. Nothing is
+     * serialized and no sockets are used, so there is no added latency.
+     * Connected straight away, fine to call on the render thread.
+     *
+     * @param server the server to join
+     */
+    public GameClient(GameServer server) {
+        this.showMessages = false;
+        metrics = null;
+        loopbackThread = LoopbackConnection.newThread("Client loopback");
+        connection = server.connectLoopback(listener, loopbackThread);
+        batcher = new MessageBatcher(connection);
+        clientId = connection.getID();
+    }
+
+    /**
+     * Connects to the server. Looking the host up and connecting can take up
+     * to a few CONNECT_TIMEOUTs, so this should run on its own thread. Can be
+     * cancelled from any thread with cancel.
+     *
+     * @param serverAddress IP or hostname of server to connect to, with an
+     * optional port
+     * @throws IOException if connection fails or was cancelled
+     */
+    public void connect(String serverAddress) throws IOException {
+        if (showMessages) {
+            System.out.println("Attempting to connect to: " + serverAddress);
+        }
 
         try {
             String host = serverAddress;
             int port = Network.port;
-            // ngrok for port forwarding
+            boolean useUdp = true;
+            // ngrok for port forwarding, which only tunnels TCP
             if (host.contains(":")) {
                 String[] parts = host.split(":");
                 host = parts[0];
                 try {
                     port = Integer.parseInt(parts[1]);
+                    useUdp = false;
                 } catch (NumberFormatException e) {
                     System.out.println("Invalid port in URL, using default port " + Network.port);
                 }
@@ -107,7 +297,23 @@ public class GameClient {
                 System.out.println("Connecting to host: " + host + " on port: " + port);
             }
 
-            client.connect(15000, host, port);
+            if (useUdp) {
+                try {
+                    client.connect(CONNECT_TIMEOUT, host, port, Network.udpPort);
+                } catch (SocketTimeoutException e) {
+                    if (e.getMessage() == null || !e.getMessage().contains("UDP") || cancelled) {
+                        throw e;
+                    }
+                    // TCP worked but UDP is blocked somewhere, everything goes over TCP instead
+                    System.out.println("UDP not available, using TCP only");
+                    client.connect(CONNECT_TIMEOUT, host, port);
+                }
+            } else {
+                client.connect(CONNECT_TIMEOUT, host, port);
+            }
+            if (cancelled) {
+                throw new IOException("Connection cancelled");
+            }
             clientId = client.getID();
 
             if (showMessages) {
@@ -115,13 +321,47 @@ public class GameClient {
             }
         } catch (IOException e) {
             System.err.println("Connection failed: " + e.getMessage());
-            if (client != null) {
-                client.close();
-            }
+            stopClient();
+            closeMetrics();
             throw e;
         }
     }
 
+    /**
+     * Gives up on a connect that is still going on another thread. Kryonet's
+     * update thread is stopped straight away, the connect throws once Kryonet
+     * returns and frees the rest. A connect that already succeeded should
+     * still be closed. Safe to call from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+        if (client != null) {
+            client.stop();
+        }
+        closeMetrics();
+    }
+
+    /**
+     * Stops Kryonet's update thread and closes its selector. Waits for the
+     * thread to end first, which is quick unless a connect on another thread
+     * is holding it up, so this is called from close and from a failed
+     * connect but not from cancel.
+     */
+    private void stopClient() {
+        client.stop();
+        Thread update = client.getUpdateThread();
+        try {
+            if (update != null && update != Thread.currentThread()) {
+                update.join();
+            }
+            client.dispose();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Error closing client: " + e.getMessage());
+        }
+    }
+
     /**
      * Returns this client's network ID.
      */
@@ -130,79 +370,451 @@ public class GameClient {
     }
 
     /**
-     * Returns the Kryonet client object.
+     * Returns the listener for server messages, to set event callbacks on.
+     */
+    public ClientListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Applies every server message received since the last frame. Call at the
+     * start of each frame, everything else in this class then runs on the
+     * render thread only.
      */
-    public Client getClient() {
-        return client;
+    public void processEvents() {
+        listener.processEvents();
     }
 
     /**
-     * Sends player's position, health, rotation, username, and kills to server.
+     * Returns the connection to the server, a Kryonet client or a loopback
+     * connection.
      */
-    public void sendPlayerUpdate(float x, float y, float health, boolean alive, float rotation, String username, int kills) {
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns whether the connection to the server is open.
+     */
+    public boolean isConnected() {
+        return connection.isConnected();
+    }
+
+    /**
+     * Registers this player's username with the server. Only needs to be sent
+     * once after connecting.
+     *
+     * @param username the local player's name
+     */
+    public void sendJoinRequest(String username) {
+        JoinRequest request = new JoinRequest();
+        request.username = username;
+        batcher.queueTCP(request);
+    }
+
+    /**
+     * Stores the username for a player ID and updates the player if we
+     * already know about them.
+     *
+     * @param playerId ID of the player
+     * @param username their username
+     */
+    public void setUsername(int playerId, String username) {
+        usernames.put(playerId, username);
+        PlayerData data = otherPlayers.get(playerId);
+        if (data != null) {
+            data.enemyPlayer.setUsername(username);
+        }
+    }
+
+    /**
+     * Looks up a player's username.
+     *
+     * @param playerId ID of the player
+     * @return their username, or "Player" if we haven't been told yet
+     */
+    public String getUsername(int playerId) {
+        String username = usernames.get(playerId);
+        return username != null ? username : "Player";
+    }
+
+    /**
+     * Sends player's movement inputs, rotation and alive flag to server
+     * over UDP when available. Each update is numbered so the server can drop
+     * ones that arrive late. Every input the server hasn't acknowledged yet
+     * goes along, up to MAX_INPUTS_PER_UPDATE, so a lost packet doesn't lose
+     * movement. Goes out with the next batch.
+     */
+    public void sendPlayerUpdate(boolean alive, float rotation) {
         PlayerUpdate update = new PlayerUpdate();
-        update.id = clientId;
-        update.x = x;
-        update.y = y;
-        update.health = health;
+        int inputCount = Math.min(pendingInputs.size(), Network.MAX_INPUTS_PER_UPDATE);
+        update.inputs = new InputCommand[inputCount];
+        Iterator<InputCommand> it = pendingInputs.descendingIterator();
+        for (int i = inputCount - 1; i >= 0; i--) {
+            update.inputs[i] = it.next();
+        }
         update.alive = alive;
         update.rotation = rotation;
-        update.username = username;
-        update.kills = kills;
-        client.sendTCP(update);
+        update.sequence = ++updateSequence;
+        batcher.queueUnreliable(update);
+        pendingUpdate = null;
+        lastSentAlive = alive;
+        sendTimer = 0;
+    }
+
+    /**
+     * Stores the local player's state to be sent on the next send tick. Can
+     * be called every frame, only the newest state is kept.
+     */
+    public void queuePlayerUpdate(boolean alive, float rotation) {
+        if (pendingUpdate == null) {
+            pendingUpdate = new PlayerUpdate();
+        }
+        pendingUpdate.alive = alive;
+        pendingUpdate.rotation = rotation;
+    }
+
+    /**
+     * Sends the queued player update once enough time has passed for the
+     * current send rate. Dying or respawning is sent right away so the
+     * server doesn't wait a tick for it. Then everything queued this frame
+     * (shots, acks, the update) goes out as one batch. Call once per frame.
+     *
+     * @param delta seconds since the last frame
+     */
+    public void sendQueuedUpdate(float delta) {
+        sendTimer += delta;
+        if (pendingUpdate != null && (sendTimer >= 1f / sendRate || pendingUpdate.alive != lastSentAlive)) {
+            adaptSendRate(sendTimer);
+            PlayerUpdate update = pendingUpdate;
+            sendPlayerUpdate(update.alive, update.rotation);
+        }
+        queuePendingShot();
+        batcher.flush();
+    }
+
+    /**
+     * Records one step of movement input to send to the server. The velocity
+     * is rounded in place to what the wire can carry, and the caller has to
+     * move the player with the rounded value so the server ends up with the
+     * same result.
+     *
+     * @param velocity velocity wanted for the next INPUT_STEP seconds
+     */
+    public void recordInput(Vector2 velocity) {
+        velocity.set(NetworkSerializers.quantizeMove(velocity.x), NetworkSerializers.quantizeMove(velocity.y));
+        InputCommand input = new InputCommand();
+        input.sequence = ++inputSequence;
+        input.moveX = velocity.x;
+        input.moveY = velocity.y;
+        pendingInputs.addLast(input);
+        if (pendingInputs.size() > MAX_PENDING_INPUTS) {
+            pendingInputs.removeFirst();
+        }
+    }
+
+    /**
+     * Corrects the local player against the newest position the server sent.
+     * The player is put where the server says it was after the last input it
+     * ran, then every input it hasn't run yet is played again on top, so the
+     * player only moves if the prediction was actually wrong. Also respawns
+     * the player once the server has picked a spawn point. Call once per
+     * frame before recording new input.
+     *
+     * @param player the local player
+     * @param obstacles obstacles to collide with while replaying
+     * @param w width of the world
+     * @param h height of the world
+     */
+    public void reconcile(Player player, Array<Rectangle> obstacles, float w, float h) {
+        WorldSnapshot ack = acknowledgeInputs();
+        if (ack == null) {
+            return;
+        }
+        player.setKills(ack.kills);
+        if (!ack.alive) {
+            return;
+        }
+        if (!player.isAlive()) {
+            if (!player.shouldRespawn()) {
+                return;
+            }
+            player.respawnAt(ack.x, ack.y);
+        }
+        replayInputs(ack, player.getHitbox(), obstacles, w, h);
+    }
+
+    /**
+     * Forgets the inputs the server says it has run, as of the newest
+     * snapshot that says so.
+     *
+     * @return that snapshot, or null if none arrived since the last call
+     */
+    public WorldSnapshot acknowledgeInputs() {
+        WorldSnapshot ack = latestInputAck;
+        if (ack == null || ack == reconciledAck) {
+            return null;
+        }
+        reconciledAck = ack;
+        while (!pendingInputs.isEmpty() && pendingInputs.peekFirst().sequence <= ack.inputAck) {
+            pendingInputs.removeFirst();
+        }
+        return ack;
+    }
+
+    /**
+     * Puts a hitbox where the server had the local player and plays every
+     * input it hasn't run yet on top.
+     *
+     * @param ack snapshot from acknowledgeInputs
+     * @param hitbox the local player's hitbox, moved in place
+     * @param obstacles obstacles to collide with while replaying
+     * @param w width of the world
+     * @param h height of the world
+     */
+    public void replayInputs(WorldSnapshot ack, Circle hitbox, Array<Rectangle> obstacles, float w, float h) {
+        hitbox.setPosition(ack.x, ack.y);
+        for (InputCommand input : pendingInputs) {
+            Player.move(hitbox, input.moveX, input.moveY, Network.INPUT_STEP, w, h, obstacles);
+        }
+    }
+
+    /**
+     * Backs the send rate off when the connection looks congested and slowly
+     * brings it back up when it doesn't. Congested means the smoothed ping
+     * has climbed well over the best one seen or TCP data is piling up
+     * unsent.
+     *
+     * @param elapsed seconds since the last send
+     */
+    private void adaptSendRate(float elapsed) {
+        long minRtt = clock.getMinRtt();
+        boolean congested = connection.getTcpWriteBufferSize() > MessageBatcher.CONGESTED_BYTES
+                || (minRtt != Long.MAX_VALUE && clock.getSmoothedRtt() > minRtt + CONGESTION_PING);
+        if (congested) {
+            sendRate = Math.max(Network.MIN_SEND_RATE, sendRate * 0.75f);
+        } else {
+            sendRate = Math.min(maxSendRate, sendRate + SEND_RATE_RECOVERY * elapsed);
+        }
+    }
+
+    /**
+     * Sets how many player updates per second to send at most.
+     *
+     * @param rate updates per second, at least the minimum send rate
+     */
+    public void setMaxSendRate(int rate) {
+        maxSendRate = Math.max(Network.MIN_SEND_RATE, rate);
+        sendRate = Math.min(sendRate, maxSendRate);
+    }
+
+    /**
+     * Returns how many player updates per second are being sent right now.
+     */
+    public float getSendRate() {
+        return sendRate;
     }
 
     /**
-     * Sends bullet shot info to server.
+     * Queues a shot to send with the next batch. Shots right after each other
+     * from the same spot and aim (a burst between two sends) are merged into
+     * one message with a count.
+     *
+     * @param type the gun fired
+     * @param shot number of the shot, one more than the last one sent
+     * @param x x position fired from, already rounded for the wire
+     * @param y y position fired from, already rounded for the wire
+     * @param aim aim in degrees, already rounded for the wire
      */
-    public void sendBulletShot(float x, float y, float dirX, float dirY, float damage) {
-        BulletUpdate update = new BulletUpdate();
-        update.playerId = clientId;
-        update.x = x;
-        update.y = y;
-        update.dirX = dirX;
-        update.dirY = dirY;
-        update.damage = damage;
-        client.sendTCP(update);
+    public void sendShot(GunFactory.GunType type, int shot, float x, float y, float aim) {
+        ShotFired last = pendingShot;
+        if (last != null && last.weapon == type.ordinal() && last.sequence + last.count == shot
+                && last.x == x && last.y == y && last.aim == aim) {
+            last.count++;
+            return;
+        }
+        queuePendingShot();
+        pendingShot = new ShotFired();
+        pendingShot.playerId = clientId;
+        pendingShot.weapon = type.ordinal();
+        pendingShot.sequence = shot;
+        pendingShot.x = x;
+        pendingShot.y = y;
+        pendingShot.aim = aim;
     }
 
     /**
-     * Sends info about hitting another player. Fatal hits are when a player
-     * dies.
-     * 
-     * @param targetId ID of the player that was hit
+     * Hands the shot being built to the batcher.
+     */
+    private void queuePendingShot() {
+        if (pendingShot != null) {
+            batcher.queueUnreliable(pendingShot);
+            pendingShot = null;
+        }
+    }
+
+    /**
+     * Applies a server confirmed hit to another player so their health is
+     * right before the next update arrives.
+     *
+     * @param playerId ID of the player that was hit
      * @param damage Amount of damage dealt
-     * @param currentKills Current kill count of the local player
+     * @param fatal whether the hit killed them
      */
-    public void sendPlayerHit(int targetId, float damage, int currentKills) {
-        PlayerHit hit = new PlayerHit();
-        hit.sourceId = clientId;
-        hit.targetId = targetId;
-        hit.damage = damage;
-        PlayerData target = otherPlayers.get(targetId);
-        if (target != null && target.alive && target.health <= damage) {
-            hit.fatal = true;
-            hit.newKillCount = currentKills + 1;
+    public void applyHitToOtherPlayer(int playerId, float damage, boolean fatal) {
+        PlayerData data = otherPlayers.get(playerId);
+        if (data != null) {
+            float health = fatal ? 0 : Math.max(0, data.health - damage);
+            data.setVitals(health, !fatal && data.alive);
+        }
+    }
+
+    /**
+     * Applies a snapshot from the server to the other players and tells the
+     * server we have it so it can be used as the next baseline. Players the
+     * snapshot carries and players left out because they didn't change get a
+     * sample at this tick's time, so someone who stood still doesn't glide
+     * from an old sample once they move again. Deferred players don't: their
+     * last known state is out of date, and stamping it with this tick's time
+     * would make them stall and then jump.
+     *
+     * @param snapshot the snapshot received
+     */
+    public void receiveSnapshot(WorldSnapshot snapshot) {
+        Map<Integer, PlayerState> states = snapshotDecoder.decode(snapshot);
+        if (states == null) {
+            return;
+        }
+
+        SnapshotAck ack = new SnapshotAck();
+        ack.tick = snapshot.tick;
+        batcher.queueUnreliable(ack);
+
+        if (snapshot.inputAck >= 0) {
+            latestInputAck = snapshot;
         }
 
-        client.sendTCP(hit);
+        long serverTime = snapshot.tick * 1000L / Network.TICK_RATE;
+        updateServerTimeOffset(serverTime);
+        Set<Integer> deferred = new HashSet<>();
+        if (snapshot.deferred != null) {
+            for (int id : snapshot.deferred) {
+                deferred.add(id);
+            }
+        }
+        for (PlayerState state : states.values()) {
+            if (!deferred.contains(state.id)) {
+                updateOtherPlayer(serverTime, state.id, state.x, state.y, state.health, state.alive, state.rotation,
+                        state.kills);
+            }
+        }
+    }
+
+    /**
+     * Moves the rough server clock estimate towards what this snapshot says.
+     * Small differences are smoothed out so uneven packet arrival doesn't
+     * make the interpolation jump, big ones (like the first snapshot) are
+     * taken as is. Once pings come back the clock sync is used instead.
+     *
+     * @param serverTime server time the snapshot was made at (ms)
+     */
+    private void updateServerTimeOffset(long serverTime) {
+        float offset = serverTime - TimeUtils.millis();
+        if (!hasServerTime || Math.abs(offset - serverTimeOffset) > 500) {
+            serverTimeOffset = offset;
+            hasServerTime = true;
+        } else {
+            serverTimeOffset += (offset - serverTimeOffset) * 0.1f;
+        }
     }
 
     /**
      * Updates or adds info about another player.
+     *
+     * @param time server time of the state (ms)
      */
-    public void updateOtherPlayer(int playerId, float x, float y, float health, boolean alive, float rotation, String username, int kills) {
+    public void updateOtherPlayer(long time, int playerId, float x, float y, float health, boolean alive, float rotation, int kills) {
         if (playerId != clientId) {
             PlayerData data = otherPlayers.get(playerId);
             if (data == null) {
                 data = new PlayerData(playerId, x, y);
+                data.enemyPlayer.setUsername(getUsername(playerId));
                 otherPlayers.put(playerId, data);
-            } else {
-                data.update(x, y, health, alive, rotation, username, kills);
+            }
+            data.update(time, x, y, health, alive, rotation, kills);
+        }
+    }
+
+    /**
+     * Returns the current server time (ms), from the clock sync once a ping
+     * has come back and from snapshot arrival times before that.
+     */
+    public long getServerTime() {
+        long now = TimeUtils.millis();
+        if (clock.hasSample()) {
+            return clock.toServerTime(now);
+        }
+        return now + (long) serverTimeOffset;
+    }
+
+    /**
+     * Moves every other player to where they were a short delay ago, blending
+     * between the snapshots around that time. Call once per frame before
+     * drawing them.
+     */
+    public void interpolateOtherPlayers() {
+        if (!hasServerTime && !clock.hasSample()) {
+            return;
+        }
+        long renderTime = getServerTime() - getEffectiveInterpolationDelay();
+        for (PlayerData data : otherPlayers.values()) {
+            if (data.buffer.sample(renderTime, sample)) {
+                data.setPosition(sample[0], sample[1], sample[2]);
             }
         }
     }
 
+    /**
+     * Sets how far behind the newest snapshot other players are drawn. Longer
+     * delays hide more packet loss but show players further in the past.
+     *
+     * @param delay delay in milliseconds
+     */
+    public void setInterpolationDelay(long delay) {
+        interpolationDelay = Math.max(0, delay);
+    }
+
+    /**
+     * Returns how far behind the newest snapshot other players are drawn (ms).
+     */
+    public long getInterpolationDelay() {
+        return interpolationDelay;
+    }
+
+    /**
+     * Returns how far behind the server other players are actually drawn:
+     * the interpolation delay plus twice the measured jitter, so snapshots
+     * arriving unevenly still land in the buffer before they are needed (ms).
+     */
+    public long getEffectiveInterpolationDelay() {
+        return interpolationDelay + Math.round(clock.getJitter() * 2);
+    }
+
+    /**
+     * Returns the server clock, round trip time and jitter estimates.
+     */
+    public ClockSync getClock() {
+        return clock;
+    }
+
+    /**
+     * Returns the client's network message counts, or null for a loopback
+     * client.
+     */
+    public NetworkMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Initializes textures for all enemy players
      */
@@ -223,6 +835,7 @@ public class GameClient {
      * Removes player from map and logs
      */
     public void removePlayer(int playerId) {
+        usernames.remove(playerId);
         if (otherPlayers.containsKey(playerId)) {
             otherPlayers.remove(playerId);
             System.out.println("Player " + playerId + " has been removed from the game.");
@@ -243,45 +856,61 @@ public class GameClient {
     public void close() {
         disposeAllEnemyPlayers();
         if (client != null) {
-            client.close();
+            stopClient();
+        } else if (connection != null) {
+            connection.close();
+        }
+        if (loopbackThread != null) {
+            loopbackThread.shutdown();
+        }
+        closeMetrics();
+    }
+
+    /**
+     * Unregisters the metrics from JMX, if this client has any.
+     */
+    private void closeMetrics() {
+        if (metrics != null) {
+            metrics.close();
         }
     }
 
     /**
-     * Sends ping request every second to measure latency.
+     * Sends a ping request every second to keep the clock sync going, faster
+     * until it has enough samples. Each ping also tells the server how far
+     * behind it this client sees other players, for lag compensation.
      */
     public void updatePing() {
-        if (client != null && client.isConnected()) {
+        if (connection != null && connection.isConnected()) {
             long currentTime = TimeUtils.millis();
-            if (currentTime - lastPingSent > PING_INTERVAL) {
+            long interval = clock.isSettled() ? PING_INTERVAL : FAST_PING_INTERVAL;
+            if (currentTime - lastPingSent > interval) {
                 PingRequest request = new PingRequest();
                 request.timestamp = currentTime;
-                client.sendTCP(request);
+                if (clock.hasSample()) {
+                    request.viewDelay = Math.round(clock.getSmoothedRtt()) + (int) getEffectiveInterpolationDelay();
+                }
+                connection.sendTCP(request);
                 lastPingSent = currentTime;
             }
         }
     }
 
     /**
-     * Calculates ping from timestamp received in response
+     * Adds a ping round trip to the clock sync.
+     *
+     * @param timestamp local time the ping was sent (ms)
+     * @param serverTime server time the ping was answered at (ms)
      */
-    public void receivePingResponse(long timestamp) {
-        currentPing = TimeUtils.millis() - timestamp;
+    public void receivePingResponse(long timestamp, long serverTime) {
+        clock.addSample(timestamp, serverTime, TimeUtils.millis());
     }
 
     /**
-     * Returns current ping in milliseconds
+     * Returns the smoothed ping in milliseconds
      */
     public long getPing() {
-        return currentPing;
-    }
-
-    /**
-     * Manually set current ping (rarely needed) I don't know why I added this
-     * to be honest.
-     */
-    public void setCurrentPing(long currentPing) {
-        this.currentPing = currentPing;
+        return Math.round(clock.getSmoothedRtt());
     }
 
     /**
@@ -296,6 +925,10 @@ public class GameClient {
         public float rotation = 0f;
         public Circle hitbox;
         public EnemyPlayer enemyPlayer;
+        /**
+         * Recent positions from snapshots, drawn from with a delay
+         */
+        public final InterpolationBuffer buffer = new InterpolationBuffer();
 
         /**
          * Creates new player data with position and default values.
@@ -309,25 +942,42 @@ public class GameClient {
         }
 
         /**
-         * Updates position, health, alive state, rotation.
+         * Applies a state from the server. Health, alive state and kills are
+         * applied right away, position and rotation go into the buffer to be
+         * drawn later. Respawning clears the buffer so the player doesn't
+         * slide across the map to their spawn point.
+         *
+         * @param time server time of the state (ms)
          */
-        public void update(float x, float y, float health, boolean alive, float rotation) {
-            this.x = x;
-            this.y = y;
+        public void update(long time, float x, float y, float health, boolean alive, float rotation, int kills) {
+            if (alive && !this.alive) {
+                buffer.clear();
+            }
+            buffer.add(time, x, y, rotation);
+            setVitals(health, alive);
+            this.enemyPlayer.setKills(kills);
+        }
+
+        /**
+         * Sets health and alive state.
+         */
+        public void setVitals(float health, boolean alive) {
             this.health = health;
             this.alive = alive;
-            this.rotation = rotation;
-            this.hitbox.setPosition(x, y);
-            this.enemyPlayer.update(x, y, health, alive);
-            this.enemyPlayer.setRotationAngleDeg(rotation);
+            this.enemyPlayer.setHealth(health);
+            this.enemyPlayer.setAlive(alive);
         }
 
         /**
-         * Same as update, but also updates username and kill count.
+         * Sets where the player is drawn and where their hitbox is.
          */
-        public void update(float x, float y, float health, boolean alive, float rotation, String username, int kills) {
-            update(x, y, health, alive, rotation);
-            this.enemyPlayer.update(x, y, health, alive, username, kills);
+        public void setPosition(float x, float y, float rotation) {
+            this.x = x;
+            this.y = y;
+            this.rotation = rotation;
+            this.hitbox.setPosition(x, y);
+            this.enemyPlayer.update(x, y, health, alive);
+            this.enemyPlayer.setRotationAngleDeg(rotation);
         }
     }
 }
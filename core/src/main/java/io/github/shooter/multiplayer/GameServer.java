@@ -1,18 +1,90 @@
 package io.github.shooter.multiplayer;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.Listener;
 import com.esotericsoftware.kryonet.Server;
 
+import io.github.shooter.game.CollisionMap;
+
 /**
- * This class handles starting and stopping the game server.
+ * This class handles starting and stopping the game server. One server hosts
+ * any number of independent matches (rooms) on the same port. Each room owns
+ * its own game world and steps it at a fixed tick rate, so how fast each
+ * client renders doesn't change what happens in the game. Rooms are ticked on
+ * a shared thread pool with one thread per core. Clients in the same JVM, like
+ * the host's own player, can skip the network with connectLoopback.
  */
 public class GameServer {
 
     /**
-     * The server instance that handles network communication
+     * Most players put in one room before a new room is opened, unless the
+     * server is given another size
+     */
+    public static final int DEFAULT_ROOM_SIZE = 8;
+
+    /**
+     * The server instance that handles network communication, null if the
+     * server only takes loopback clients
      */
     private Server server;
+    /**
+     * Most players put in one room before a new room is opened
+     */
+    private final int roomSize;
+    /**
+     * The map's collision rectangles, loaded once and copied into each room
+     */
+    private final Array<Rectangle> obstacles;
+    /**
+     * Rooms that are open, in the order they were opened
+     */
+    private final List<Room> rooms = new ArrayList<>();
+    /**
+     * The room each client is in, by connection ID
+     */
+    private final Map<Integer, Room> roomsByConnection = new ConcurrentHashMap<>();
+    /**
+     * Runs the fixed rate tick of every room
+     */
+    private final ScheduledExecutorService ticker;
+    /**
+     * ID given to the next room opened
+     */
+    private int nextRoomId = 1;
+    /**
+     * Handles client messages, shared by every room
+     */
+    private final ServerListener listener = new ServerListener(this);
+    /**
+     * Message counts by type, connection and direction, also over JMX
+     */
+    private final NetworkMetrics metrics = new NetworkMetrics("server");
+    /**
+     * How long the rooms' ticks take
+     */
+    private final TickStats tickStats;
+    /**
+     * Calls the listener for every loopback client, like Kryonet's thread
+     * does for network clients. Started with the first loopback client
+     */
+    private ExecutorService loopbackThread;
+    /**
+     * Loopback clients that are connected, by connection ID
+     */
+    private final Map<Integer, LoopbackConnection> loopbacks = new ConcurrentHashMap<>();
 
     /**
      * Creates and starts the server. Registers network message classes and
@@ -21,20 +93,200 @@ public class GameServer {
      * @throws IOException if something goes wrong with binding the port
      */
     public GameServer() throws IOException {
-        server = new Server(32768, 32768);
+        this(DEFAULT_ROOM_SIZE, true);
+    }
+
+    /**
+     * Creates and starts the server, optionally without opening any ports.
+     *
+     * @param listen whether to listen for network clients; without it only
+     * loopback clients can join, e.g. for tests
+     * @throws IOException if something goes wrong with binding the port or
+     * loading the map
+     */
+    public GameServer(boolean listen) throws IOException {
+        this(DEFAULT_ROOM_SIZE, listen);
+    }
+
+    /**
+     * Creates and starts the server with a set room size.
+     *
+     * @param roomSize most players in one room, up to
+     * Network.MAX_SNAPSHOT_PLAYERS
+     * @param listen whether to listen for network clients; without it only
+     * loopback clients can join, e.g. for tests
+     * @throws IOException if something goes wrong with binding the port or
+     * loading the map
+     */
+    public GameServer(int roomSize, boolean listen) throws IOException {
+        this(roomSize, listen, CollisionMap.load("Collisions.tmx"));
+    }
+
+    /**
+     * Creates and starts the server on a given map, e.g. an empty one for
+     * tests.
+     *
+     * @param roomSize most players in one room, up to
+     * Network.MAX_SNAPSHOT_PLAYERS
+     * @param listen whether to listen for network clients
+     * @param obstacles the map's collision rectangles
+     * @throws IOException if something goes wrong with binding the port
+     */
+    public GameServer(int roomSize, boolean listen, Array<Rectangle> obstacles) throws IOException {
+        if (roomSize < 1 || roomSize > Network.MAX_SNAPSHOT_PLAYERS) {
+            throw new IllegalArgumentException("Room size must be between 1 and " + Network.MAX_SNAPSHOT_PLAYERS
+                    + ", got " + roomSize);
+        }
+        this.roomSize = roomSize;
+        this.tickStats = new TickStats(Network.TICK_RATE);
+        this.obstacles = obstacles;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        int threads = Runtime.getRuntime().availableProcessors();
+        ticker = Executors.newScheduledThreadPool(threads, r -> {
+            Thread t = new Thread(r, "Room tick " + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        if (!listen) {
+            System.out.println("Server started for loopback clients only at " + Network.TICK_RATE + " ticks per second on "
+                    + threads + " threads, " + roomSize + " players per room");
+            return;
+        }
+        server = new Server(Network.WRITE_BUFFER_SIZE, Network.OBJECT_BUFFER_SIZE, new MeteredSerialization(metrics));
         Network.register(server.getKryo());
-        server.addListener(new ServerListener(server));
-        server.bind(Network.port);
+        server.addListener(listener);
+        server.bind(Network.port, Network.udpPort);
         server.start();
-        System.out.println("Server started on port " + Network.port);
+
+        System.out.println("Server started on port " + Network.port + " (UDP " + Network.udpPort + ") at " + Network.TICK_RATE
+                + " ticks per second on " + threads + " threads, " + roomSize + " players per room");
+    }
+
+    /**
+     * Connects a client in the same JVM without going through the network.
+     * Messages are handed over as they are, with no serializing or sockets,
+     * so they aren't counted in the metrics either.
+     *
+     * @param clientListener gets what the server sends
+     * @param clientThread thread the client listener is called on
+     * @return the client's end of the connection, already connected
+     */
+    public synchronized Connection connectLoopback(Listener clientListener, ExecutorService clientThread) {
+        if (loopbackThread == null) {
+            loopbackThread = LoopbackConnection.newThread("Server loopback");
+        }
+        LoopbackConnection connection = LoopbackConnection.connect(loopbackThread, listener, clientThread, clientListener);
+        loopbacks.put(connection.getID(), connection);
+        return connection;
+    }
+
+    /**
+     * Puts a new client in the first room with space, opening a new room if
+     * every room is full.
+     *
+     * @param connection the client
+     * @return the room the client was put in
+     */
+    public synchronized Room joinRoom(Connection connection) {
+        Room room = null;
+        for (Room r : rooms) {
+            if (r.getPlayerCount() < roomSize) {
+                room = r;
+                break;
+            }
+        }
+        if (room == null) {
+            room = openRoom();
+        }
+        room.add(connection);
+        roomsByConnection.put(connection.getID(), room);
+        return room;
+    }
+
+    /**
+     * Takes a client out of their room, closing the room if it is left
+     * empty.
+     *
+     * @param connection the client
+     * @return the room the client was in, or null if they weren't in one
+     */
+    public synchronized Room leaveRoom(Connection connection) {
+        loopbacks.remove(connection.getID());
+        Room room = roomsByConnection.remove(connection.getID());
+        if (room == null) {
+            return null;
+        }
+        room.remove(connection);
+        if (room.getPlayerCount() == 0) {
+            room.close();
+            rooms.remove(room);
+            System.out.println("Closed room " + room.getId() + " (" + rooms.size() + " open)");
+        }
+        return room;
+    }
+
+    /**
+     * Returns the room a client is in.
+     *
+     * @param connection the client
+     * @return the room, or null if the client isn't in one
+     */
+    public Room getRoom(Connection connection) {
+        return roomsByConnection.get(connection.getID());
+    }
+
+    /**
+     * Returns the server's network message counts.
+     */
+    public NetworkMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns how long the rooms' ticks have been taking.
+     */
+    public TickStats getTickStats() {
+        return tickStats;
+    }
+
+    /**
+     * Returns how many rooms are open.
+     */
+    public synchronized int getRoomCount() {
+        return rooms.size();
+    }
+
+    /**
+     * Opens an empty room and starts its tick.
+     */
+    private Room openRoom() {
+        final Room room = new Room(nextRoomId++, obstacles, listener, tickStats);
+        final float dt = 1f / Network.TICK_RATE;
+        room.setFuture(ticker.scheduleAtFixedRate(() -> room.tick(dt), 0, 1000000000L / Network.TICK_RATE, TimeUnit.NANOSECONDS));
+        rooms.add(room);
+        System.out.println("Opened room " + room.getId() + " (" + rooms.size() + " open)");
+        return room;
     }
 
     /**
      * Stops the server if it is running.
      */
     public void stop() {
+        ticker.shutdownNow();
         if (server != null) {
             server.stop();
         }
+        for (LoopbackConnection connection : loopbacks.values()) {
+            connection.close();
+        }
+        synchronized (this) {
+            if (loopbackThread != null) {
+                // lets the disconnects already queued run first
+                loopbackThread.shutdown();
+            }
+        }
+        metrics.close();
     }
 }
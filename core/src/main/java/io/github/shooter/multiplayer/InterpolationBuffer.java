@@ -0,0 +1,111 @@
+package io.github.shooter.multiplayer;
+
+import com.badlogic.gdx.math.MathUtils;
+
+/**
+ * Keeps the last few timestamped positions of a remote player so they can be
+ * drawn slightly in the past, smoothly moving between two known states
+ * instead of jumping whenever a packet arrives.
+ */
+public class InterpolationBuffer {
+
+    /**
+     * How many samples are kept
+     */
+    public static final int CAPACITY = 32;
+
+    /**
+     * Sample times in milliseconds of server time
+     */
+    private final long[] times = new long[CAPACITY];
+    /**
+     * Sample positions
+     */
+    private final float[] xs = new float[CAPACITY], ys = new float[CAPACITY];
+    /**
+     * Sample rotations in degrees
+     */
+    private final float[] rotations = new float[CAPACITY];
+    /**
+     * Index the next sample is written to
+     */
+    private int head = 0;
+    /**
+     * Number of samples stored
+     */
+    private int count = 0;
+
+    /**
+     * Adds a sample. Samples not newer than the newest one are dropped, since
+     * they can arrive out of order over UDP.
+     *
+     * @param time server time of the sample (ms)
+     * @param x x position
+     * @param y y position
+     * @param rotation rotation in degrees
+     */
+    public void add(long time, float x, float y, float rotation) {
+        if (count > 0 && time <= times[index(count - 1)]) {
+            return;
+        }
+        times[head] = time;
+        xs[head] = x;
+        ys[head] = y;
+        rotations[head] = rotation;
+        head = (head + 1) % CAPACITY;
+        count = Math.min(count + 1, CAPACITY);
+    }
+
+    /**
+     * Works out where the player was at a given time by blending the two
+     * samples around it. Times outside the buffer use the nearest sample.
+     *
+     * @param time server time to sample at (ms)
+     * @param out gets x, y and rotation in that order
+     * @return false if the buffer is empty
+     */
+    public boolean sample(long time, float[] out) {
+        if (count == 0) {
+            return false;
+        }
+        int newest = index(count - 1);
+        if (time >= times[newest]) {
+            set(out, newest);
+            return true;
+        }
+        for (int i = count - 2; i >= 0; i--) {
+            int from = index(i);
+            if (times[from] <= time) {
+                int to = index(i + 1);
+                float alpha = (float) (time - times[from]) / (times[to] - times[from]);
+                out[0] = MathUtils.lerp(xs[from], xs[to], alpha);
+                out[1] = MathUtils.lerp(ys[from], ys[to], alpha);
+                out[2] = MathUtils.lerpAngleDeg(rotations[from], rotations[to], alpha);
+                return true;
+            }
+        }
+        set(out, index(0));
+        return true;
+    }
+
+    /**
+     * Removes every sample, e.g. when the player respawns somewhere else.
+     */
+    public void clear() {
+        head = 0;
+        count = 0;
+    }
+
+    /**
+     * Turns a position counted from the oldest sample into an array index.
+     */
+    private int index(int i) {
+        return (head - count + i + CAPACITY) % CAPACITY;
+    }
+
+    private void set(float[] out, int i) {
+        out[0] = xs[i];
+        out[1] = ys[i];
+        out[2] = rotations[i];
+    }
+}
@@ -0,0 +1,221 @@
+package io.github.shooter.multiplayer;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.Listener;
+
+import io.github.shooter.multiplayer.Network.MessageBatch;
+
+/**
+ * One end of an in memory connection between a client and a server in the
+ * same JVM, used for the host's own player and for testing without sockets.
+ * Everything that works with a Kryonet connection works with this one, but a
+ * message sent is handed to the other end's listener as the same object, with
+ * no serializing, copying or kernel in between. Like Kryonet, each end calls
+ * its listener on one thread of its own, so listeners see the same threading
+ * either way. Messages must not be changed once sent.
+ */
+public class LoopbackConnection extends Connection {
+
+    /**
+     * Last connection ID given out. Counts down from -1 so it never clashes
+     * with Kryonet's IDs, which count up from 1
+     */
+    private static final AtomicInteger lastId = new AtomicInteger();
+
+    /**
+     * Connection ID, the same at both ends
+     */
+    private final int id;
+    /**
+     * Thread this end's listener is called on
+     */
+    private final ExecutorService thread;
+    /**
+     * Gets what the other end sends
+     */
+    private final Listener listener;
+    /**
+     * The other end
+     */
+    private LoopbackConnection peer;
+    /**
+     * Whether the connection is still open
+     */
+    private volatile boolean connected = true;
+
+    private LoopbackConnection(int id, ExecutorService thread, Listener listener) {
+        this.id = id;
+        this.thread = thread;
+        this.listener = listener;
+    }
+
+    /**
+     * Connects a client to a server. Both listeners are told about the new
+     * connection on their own thread before any message arrives.
+     *
+     * @param serverThread thread the server's listener is called on, shared
+     * by all of its loopback connections
+     * @param serverListener the server's listener
+     * @param clientThread thread the client's listener is called on
+     * @param clientListener the client's listener
+     * @return the client's end of the connection
+     */
+    public static LoopbackConnection connect(ExecutorService serverThread, Listener serverListener,
+            ExecutorService clientThread, Listener clientListener) {
+        int id = lastId.decrementAndGet();
+        final LoopbackConnection server = new LoopbackConnection(id, serverThread, serverListener);
+        final LoopbackConnection client = new LoopbackConnection(id, clientThread, clientListener);
+        server.peer = client;
+        client.peer = server;
+        server.post(() -> serverListener.connected(server));
+        client.post(() -> clientListener.connected(client));
+        return client;
+    }
+
+    /**
+     * Creates the single thread one end calls its listener on.
+     *
+     * @param name name of the thread
+     * @return the thread, shut it down once its connections are closed
+     */
+    public static ExecutorService newThread(String name) {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Hands a message to the other end's listener.
+     *
+     * @param object the message, not to be changed afterwards
+     * @return always 0, nothing is serialized
+     */
+    @Override
+    public int sendTCP(Object object) {
+        if (connected) {
+            peer.receive(object);
+        }
+        return 0;
+    }
+
+    /**
+     * Same as sendTCP, nothing gets lost in memory.
+     */
+    @Override
+    public int sendUDP(Object object) {
+        return sendTCP(object);
+    }
+
+    /**
+     * Queues a message from the other end for this end's listener. Shared
+     * messages are unwrapped here, since there are no bytes to decode them
+     * from.
+     */
+    private void receive(Object object) {
+        final Object message = unwrap(object);
+        post(() -> {
+            if (connected) {
+                listener.received(this, message);
+            }
+        });
+    }
+
+    private static Object unwrap(Object object) {
+        if (object instanceof SharedMessage) {
+            return ((SharedMessage) object).getMessage();
+        }
+        if (object instanceof MessageBatch) {
+            // batches are made fresh for each send, so this can't affect another connection
+            Object[] messages = ((MessageBatch) object).messages;
+            for (int i = 0; i < messages.length; i++) {
+                messages[i] = unwrap(messages[i]);
+            }
+        }
+        return object;
+    }
+
+    /**
+     * Closes both ends. Each listener is told on its own thread.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (!connected) {
+                return;
+            }
+            connected = false;
+        }
+        post(() -> listener.disconnected(this));
+        peer.close();
+    }
+
+    /**
+     * Runs something on this end's thread, unless it has shut down.
+     */
+    private void post(Runnable task) {
+        try {
+            thread.execute(task);
+        } catch (RejectedExecutionException e) {
+            // this end is gone, nobody is left to tell
+        }
+    }
+
+    @Override
+    public int getID() {
+        return id;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Returns 0, nothing ever waits in a buffer.
+     */
+    @Override
+    public int getTcpWriteBufferSize() {
+        return 0;
+    }
+
+    /**
+     * Returns 0, messages arrive as soon as the other end's thread gets to
+     * them.
+     */
+    @Override
+    public int getReturnTripTime() {
+        return 0;
+    }
+
+    @Override
+    public void updateReturnTripTime() {
+    }
+
+    @Override
+    public boolean isIdle() {
+        return true;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddressTCP() {
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddressUDP() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "Loopback " + id;
+    }
+}
@@ -0,0 +1,176 @@
+package io.github.shooter.multiplayer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.badlogic.gdx.utils.TimeUtils;
+import com.esotericsoftware.kryonet.Connection;
+
+import io.github.shooter.multiplayer.Network.MessageBatch;
+import io.github.shooter.multiplayer.Network.PlayerHit;
+import io.github.shooter.multiplayer.Network.ShotFired;
+
+/**
+ * Collects the messages going to one connection and sends them together once
+ * per network tick, instead of one write (and one packet) per message.
+ * Reliable and unreliable messages are batched separately since they go out
+ * on different sockets. When data is piling up unsent in the connection's
+ * TCP write buffer, whatever goes over TCP is thinned out: hits and shots
+ * the client can do without are dropped, and if there is no UDP, past a
+ * higher mark nothing unreliable is sent until it clears.
+ */
+public class MessageBatcher {
+
+    /**
+     * Most messages put in one unreliable batch, so a datagram doesn't grow
+     * big enough to get split up on the way
+     */
+    public static final int MAX_UNRELIABLE_BATCH = 8;
+    /**
+     * Bytes waiting in the write buffer that count as congested
+     */
+    public static final int CONGESTED_BYTES = Network.WRITE_BUFFER_SIZE / 8;
+    /**
+     * Bytes waiting in the write buffer past which no unreliable messages
+     * are sent at all, if they go over TCP
+     */
+    public static final int BACKED_UP_BYTES = Network.WRITE_BUFFER_SIZE / 4;
+
+    /**
+     * The connection the batches are sent on
+     */
+    private final Connection connection;
+    /**
+     * Messages waiting to go out over TCP
+     */
+    private final List<Object> reliable = new ArrayList<>();
+    /**
+     * Messages waiting to go out over UDP, or TCP if there is no UDP
+     */
+    private final List<Object> unreliable = new ArrayList<>();
+    /**
+     * When the connection became congested, 0 if it isn't (ms)
+     */
+    private long congestedSince = 0;
+
+    /**
+     * Creates a batcher for a connection.
+     *
+     * @param connection the connection to send on
+     */
+    public MessageBatcher(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Queues a message that has to arrive.
+     *
+     * @param message the message to send on the next flush
+     */
+    public synchronized void queueTCP(Object message) {
+        reliable.add(message);
+    }
+
+    /**
+     * Queues a message that is fine to lose.
+     *
+     * @param message the message to send on the next flush
+     */
+    public synchronized void queueUnreliable(Object message) {
+        unreliable.add(message);
+    }
+
+    /**
+     * Sends everything queued since the last flush, leaving out what a
+     * backed up connection can do without.
+     */
+    public synchronized void flush() {
+        int pending = connection.getTcpWriteBufferSize();
+        if (pending > CONGESTED_BYTES) {
+            if (congestedSince == 0) {
+                congestedSince = TimeUtils.millis();
+            }
+            dropRedundant(reliable);
+            // unreliable messages only add to the write buffer when there is no UDP
+            if (connection.getRemoteAddressUDP() == null) {
+                if (pending > BACKED_UP_BYTES) {
+                    unreliable.clear();
+                } else {
+                    dropRedundant(unreliable);
+                }
+            }
+        } else {
+            congestedSince = 0;
+        }
+        for (int i = 0; i < reliable.size(); i += Network.MAX_BATCH_SIZE) {
+            List<Object> part = reliable.subList(i, Math.min(reliable.size(), i + Network.MAX_BATCH_SIZE));
+            connection.sendTCP(batch(part));
+        }
+        reliable.clear();
+        for (int i = 0; i < unreliable.size(); i += MAX_UNRELIABLE_BATCH) {
+            List<Object> part = unreliable.subList(i, Math.min(unreliable.size(), i + MAX_UNRELIABLE_BATCH));
+            Network.sendUnreliable(connection, batch(part));
+        }
+        unreliable.clear();
+    }
+
+    /**
+     * Returns whether data has been piling up in the write buffer since the
+     * last flush.
+     */
+    public synchronized boolean isCongested() {
+        return congestedSince != 0;
+    }
+
+    /**
+     * Returns how long the connection has been congested (ms), 0 if it isn't.
+     */
+    public synchronized long getCongestedTime() {
+        return congestedSince == 0 ? 0 : TimeUtils.timeSinceMillis(congestedSince);
+    }
+
+    /**
+     * Returns the bytes waiting in the connection's TCP write buffer.
+     */
+    public int getPendingBytes() {
+        return connection.getTcpWriteBufferSize();
+    }
+
+    /**
+     * Drops the messages the client can miss without getting out of step: hits
+     * between two other players that kill nobody, since the next snapshot
+     * carries the new health anyway, and shots other players fired, which are
+     * only drawn. The server decides every hit itself.
+     */
+    private void dropRedundant(List<Object> messages) {
+        int id = connection.getID();
+        for (Iterator<Object> it = messages.iterator(); it.hasNext();) {
+            Object message = it.next();
+            if (message instanceof SharedMessage) {
+                message = ((SharedMessage) message).getMessage();
+            }
+            if (message instanceof PlayerHit) {
+                PlayerHit hit = (PlayerHit) message;
+                if (!hit.fatal && hit.sourceId != id && hit.targetId != id) {
+                    it.remove();
+                }
+            } else if (message instanceof ShotFired && ((ShotFired) message).playerId != id) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Wraps messages in a batch, or returns the message itself if there is
+     * only one.
+     */
+    private static Object batch(List<Object> messages) {
+        if (messages.size() == 1) {
+            return messages.get(0);
+        }
+        MessageBatch batch = new MessageBatch();
+        batch.messages = messages.toArray();
+        return batch;
+    }
+}
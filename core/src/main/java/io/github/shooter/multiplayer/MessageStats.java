@@ -0,0 +1,206 @@
+package io.github.shooter.multiplayer;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.badlogic.gdx.utils.TimeUtils;
+
+/**
+ * Counts the messages and bytes going each way, split by message type.
+ * Counting is lock free so it can be done while serializing, reading can
+ * happen from any thread.
+ */
+public class MessageStats implements MessageStatsMXBean {
+
+    /**
+     * Shortest time rates are averaged over (ns)
+     */
+    private static final long RATE_WINDOW = 1000000000L;
+
+    /**
+     * Counts of messages sent, by type name
+     */
+    private final Map<String, Counter> sent = new ConcurrentHashMap<>();
+    /**
+     * Counts of messages received, by type name
+     */
+    private final Map<String, Counter> received = new ConcurrentHashMap<>();
+    /**
+     * Counts of messages dropped, by type name
+     */
+    private final Map<String, Counter> dropped = new ConcurrentHashMap<>();
+    /**
+     * Totals of every type
+     */
+    private final Counter totalSent = new Counter(), totalReceived = new Counter(), totalDropped = new Counter();
+
+    /**
+     * When the rates were last worked out (ns)
+     */
+    private long rateTime = TimeUtils.nanoTime();
+    /**
+     * Totals when the rates were last worked out, in the order messages
+     * sent, bytes sent, messages received, bytes received
+     */
+    private final long[] rateTotals = new long[4];
+    /**
+     * Per second rates, same order as rateTotals
+     */
+    private final double[] rates = new double[4];
+
+    /**
+     * Counts a message sent.
+     *
+     * @param type the message's type name
+     * @param bytes serialized size
+     */
+    public void recordSent(String type, long bytes) {
+        counter(sent, type).add(bytes);
+        totalSent.add(bytes);
+    }
+
+    /**
+     * Counts a message received.
+     *
+     * @param type the message's type name
+     * @param bytes serialized size
+     */
+    public void recordReceived(String type, long bytes) {
+        counter(received, type).add(bytes);
+        totalReceived.add(bytes);
+    }
+
+    /**
+     * Counts a message received but dropped without being handled.
+     *
+     * @param type the message's type name
+     */
+    public void recordDropped(String type) {
+        counter(dropped, type).add(0);
+        totalDropped.add(0);
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return totalSent.messages.get();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return totalSent.bytes.get();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return totalReceived.messages.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return totalReceived.bytes.get();
+    }
+
+    @Override
+    public long getMessagesDropped() {
+        return totalDropped.messages.get();
+    }
+
+    @Override
+    public double getMessagesSentPerSecond() {
+        return rate(0);
+    }
+
+    @Override
+    public double getBytesSentPerSecond() {
+        return rate(1);
+    }
+
+    @Override
+    public double getMessagesReceivedPerSecond() {
+        return rate(2);
+    }
+
+    @Override
+    public double getBytesReceivedPerSecond() {
+        return rate(3);
+    }
+
+    @Override
+    public Map<String, Long> getMessagesSentByType() {
+        return copy(sent, false);
+    }
+
+    @Override
+    public Map<String, Long> getBytesSentByType() {
+        return copy(sent, true);
+    }
+
+    @Override
+    public Map<String, Long> getMessagesReceivedByType() {
+        return copy(received, false);
+    }
+
+    @Override
+    public Map<String, Long> getBytesReceivedByType() {
+        return copy(received, true);
+    }
+
+    @Override
+    public Map<String, Long> getMessagesDroppedByType() {
+        return copy(dropped, false);
+    }
+
+    /**
+     * Returns one of the rates, working them out again if the last time was
+     * long enough ago.
+     */
+    private synchronized double rate(int i) {
+        long now = TimeUtils.nanoTime();
+        long elapsed = now - rateTime;
+        if (elapsed >= RATE_WINDOW) {
+            long[] totals = {getMessagesSent(), getBytesSent(), getMessagesReceived(), getBytesReceived()};
+            for (int j = 0; j < totals.length; j++) {
+                rates[j] = (totals[j] - rateTotals[j]) * 1e9 / elapsed;
+                rateTotals[j] = totals[j];
+            }
+            rateTime = now;
+        }
+        return rates[i];
+    }
+
+    private static Counter counter(Map<String, Counter> counters, String type) {
+        Counter counter = counters.get(type);
+        if (counter == null) {
+            counter = new Counter();
+            Counter existing = counters.putIfAbsent(type, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    private static Map<String, Long> copy(Map<String, Counter> counters, boolean bytes) {
+        Map<String, Long> copy = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            copy.put(entry.getKey(), bytes ? entry.getValue().bytes.get() : entry.getValue().messages.get());
+        }
+        return copy;
+    }
+
+    /**
+     * Message and byte count of one type.
+     */
+    private static class Counter {
+
+        final AtomicLong messages = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+
+        void add(long size) {
+            messages.incrementAndGet();
+            bytes.addAndGet(size);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.shooter.multiplayer;
+
+import java.util.Map;
+
+/**
+ * Message and byte counts of one end of the network, or of one connection,
+ * as seen over JMX. Byte counts are the serialized messages without
+ * Kryonet's length prefix. Dropped messages were received but refused
+ * without being handled, e.g. for going over a rate limit. Per second rates
+ * are averaged since the last time a rate was read, at least a second back.
+ */
+public interface MessageStatsMXBean {
+
+    long getMessagesSent();
+
+    long getBytesSent();
+
+    long getMessagesReceived();
+
+    long getBytesReceived();
+
+    long getMessagesDropped();
+
+    double getMessagesSentPerSecond();
+
+    double getBytesSentPerSecond();
+
+    double getMessagesReceivedPerSecond();
+
+    double getBytesReceivedPerSecond();
+
+    Map<String, Long> getMessagesSentByType();
+
+    Map<String, Long> getBytesSentByType();
+
+    Map<String, Long> getMessagesReceivedByType();
+
+    Map<String, Long> getBytesReceivedByType();
+
+    Map<String, Long> getMessagesDroppedByType();
+}
@@ -0,0 +1,122 @@
+package io.github.shooter.multiplayer;
+
+import java.nio.ByteBuffer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.KryoSerialization;
+
+import io.github.shooter.multiplayer.Network.MessageBatch;
+
+/**
+ * Kryonet's serialization with every message counted in NetworkMetrics by
+ * type, direction and connection. Messages inside a batch are counted as
+ * their own type, and the batch itself only as the bytes it adds around
+ * them. A shared message is counted as the message it holds.
+ */
+public class MeteredSerialization extends KryoSerialization {
+
+    /**
+     * Where the counts go
+     */
+    private final NetworkMetrics metrics;
+    /**
+     * Lets the batch serializer count each message in a batch, reused since
+     * reads and writes are synchronized
+     */
+    private final Meter meter = new Meter();
+
+    /**
+     * Creates a serialization that counts into the given metrics.
+     *
+     * @param metrics where the counts go
+     */
+    public MeteredSerialization(NetworkMetrics metrics) {
+        this.metrics = metrics;
+        getKryo().getContext().put(Meter.class, meter);
+    }
+
+    @Override
+    public synchronized void write(Connection connection, ByteBuffer buffer, Object object) {
+        int start = buffer.position();
+        meter.begin(connection, true);
+        super.write(connection, buffer, object);
+        meter.end(object, buffer.position() - start);
+    }
+
+    @Override
+    public synchronized Object read(Connection connection, ByteBuffer buffer) {
+        int start = buffer.position();
+        meter.begin(connection, false);
+        Object object = super.read(connection, buffer);
+        meter.end(object, buffer.position() - start);
+        return object;
+    }
+
+    /**
+     * Returns the meter of a Kryo that belongs to a MeteredSerialization.
+     *
+     * @param kryo the Kryo doing the serializing
+     * @return the meter, or null if the Kryo isn't metered
+     */
+    static Meter meter(Kryo kryo) {
+        return (Meter) kryo.getContext().get(Meter.class);
+    }
+
+    /**
+     * Returns the name a message is counted under.
+     */
+    private static String typeName(Object message) {
+        if (message instanceof SharedMessage) {
+            return ((SharedMessage) message).getMessageClass().getSimpleName();
+        }
+        return message == null ? "null" : message.getClass().getSimpleName();
+    }
+
+    /**
+     * Counts the message being read or written right now.
+     */
+    class Meter {
+
+        private Connection connection;
+        private boolean sending;
+        /**
+         * Bytes of the messages counted inside the current batch
+         */
+        private long batched;
+
+        void begin(Connection connection, boolean sending) {
+            this.connection = connection;
+            this.sending = sending;
+            batched = 0;
+        }
+
+        /**
+         * Counts one message inside a batch.
+         *
+         * @param message the message
+         * @param bytes its serialized size
+         */
+        void record(Object message, long bytes) {
+            batched += bytes;
+            record(typeName(message), bytes);
+        }
+
+        void end(Object message, long bytes) {
+            if (message instanceof MessageBatch) {
+                record(typeName(message), bytes - batched);
+            } else {
+                record(typeName(message), bytes);
+            }
+            connection = null;
+        }
+
+        private void record(String type, long bytes) {
+            if (sending) {
+                metrics.recordSent(connection, type, bytes);
+            } else {
+                metrics.recordReceived(connection, type, bytes);
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package io.github.shooter.multiplayer;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryonet.Connection;
 
 /**
  * Holds all network message types and helper method to register them.
@@ -11,35 +12,130 @@ public class Network {
      * The port used for the multiplayer server when trying to connect over IPv4
      */
     public static final int port = 54555;
+    /**
+     * The UDP port used for movement and bullet messages that are fine to lose
+     */
+    public static final int udpPort = 54777;
+
+    /**
+     * Size of each connection's write buffer in bytes. Kryonet closes a
+     * connection whose pending data would go over it
+     */
+    public static final int WRITE_BUFFER_SIZE = 32768;
+    /**
+     * Largest single serialized message in bytes
+     */
+    public static final int OBJECT_BUFFER_SIZE = 32768;
+    /**
+     * Most messages in one MessageBatch. Larger sends are split into several
+     * batches, and a batch claiming more is rejected before anything is read
+     */
+    public static final int MAX_BATCH_SIZE = 64;
+
+    /**
+     * How many times per second the server steps the game world
+     */
+    public static final int TICK_RATE = 30;
+    /**
+     * How many times per second a client sends its player update, no matter
+     * how fast it renders
+     */
+    public static final int SEND_RATE = 30;
+    /**
+     * The lowest send rate a client backs off to when the connection is
+     * congested
+     */
+    public static final int MIN_SEND_RATE = 10;
+    /**
+     * How many movement inputs per second a client records. Movement runs in
+     * steps of exactly this size on both ends so the server and the client's
+     * prediction get the same result
+     */
+    public static final int INPUT_RATE = 60;
+    /**
+     * Length of one movement input in seconds
+     */
+    public static final float INPUT_STEP = 1f / INPUT_RATE;
+    /**
+     * Fastest a player may move (units per second)
+     */
+    public static final float MAX_MOVE_SPEED = 200f;
+    /**
+     * Most unacknowledged inputs resent in one update, so a few lost packets
+     * don't lose any movement
+     */
+    public static final int MAX_INPUTS_PER_UPDATE = 16;
+    /**
+     * Most players one snapshot can list as changed, removed or deferred.
+     * Part of the protocol, so rooms can't be made bigger than this
+     */
+    public static final int MAX_SNAPSHOT_PLAYERS = 64;
 
     /**
-     * Info about a player sent to update their position, health, rotation,
-     * username, and kills.
+     * Sent by a client with its movement inputs, rotation and whether it
+     * wants to be alive. The client never sends its position, health or
+     * kills, the server works those out by running the inputs itself. Goes
+     * over UDP, so the sequence number is used to drop updates that arrive
+     * out of order, and recent inputs are resent until the server
+     * acknowledges them.
      */
     public static class PlayerUpdate {
 
-        public int id;
-        public float x, y;
+        public int sequence;
+        public InputCommand[] inputs;
         public boolean alive = true;
-        public float health = 100f;
         public float rotation = 0f;
-        public String username = "Player";
-        public int kills = 0;
     }
 
     /**
-     * Info about a bullet fired, including position and direction.
+     * One step of movement input, the velocity the player wanted for
+     * INPUT_STEP seconds. Inputs in one PlayerUpdate have consecutive
+     * sequence numbers.
+     */
+    public static class InputCommand {
+
+        public int sequence;
+        public float moveX, moveY;
+    }
+
+    /**
+     * Sent once by a client right after connecting, to register its username.
+     */
+    public static class JoinRequest {
+
+        public String username;
+    }
+
+    /**
+     * Sent by the server to tell clients the username that goes with a player
+     * ID. A new client gets one for every player already in the game, and
+     * everyone gets one when someone joins. Gameplay messages then only carry
+     * the ID.
+     */
+    public static class PlayerJoined {
+
+        public int id;
+        public String username;
+    }
+
+    /**
+     * One or more shots fired from the same spot at the same aim. Direction,
+     * speed and damage aren't sent, everyone rebuilds them from the gun type
+     * and the shot numbers with ShotPattern.
      */
-    public static class BulletUpdate {
+    public static class ShotFired {
 
         public int playerId;
+        public int weapon;
+        public int sequence;
+        public int count = 1;
         public float x, y;
-        public float dirX, dirY;
-        public float damage = 25f;
+        public float aim;
     }
 
     /**
-     * Sent when a player gets hit, with damage info.
+     * Sent by the server when a player gets hit, with damage info. Only the
+     * server decides hits.
      */
     public static class PlayerHit {
 
@@ -51,19 +147,100 @@ public class Network {
     }
 
     /**
-     * Sent by client to check ping latency.
+     * The server's view of the world for one tick. Unless baselineTick is -1
+     * (a keyframe), players are only listed if something about them changed
+     * since the baseline snapshot the client last acknowledged, and deferred
+     * lists the players that did change but have to wait for their turn, so
+     * the client can tell them apart from players that stood still. Also tells
+     * the receiving client the last input of theirs the server ran, where
+     * that left them and their own kill count, so the client can correct its
+     * prediction and pick up the round being reset.
+     */
+    public static class WorldSnapshot {
+
+        public int tick;
+        public int baselineTick = -1;
+        public PlayerState[] players;
+        public int[] removed;
+        public int[] deferred;
+        public int inputAck = -1;
+        public float x, y;
+        public boolean alive = true;
+        public int kills;
+    }
+
+    /**
+     * One player inside a WorldSnapshot. Only the fields flagged in changed
+     * are sent, everything else is the same as in the baseline.
+     */
+    public static class PlayerState {
+
+        public static final int POSITION = 1, ROTATION = 2, HEALTH = 4, ALIVE = 8, KILLS = 16;
+        public static final int ALL = POSITION | ROTATION | HEALTH | ALIVE | KILLS;
+
+        public int id;
+        public int changed = ALL;
+        public float x, y;
+        public float rotation = 0f;
+        public float health = 200f;
+        public boolean alive = true;
+        public int kills = 0;
+
+        /**
+         * Copies the fields flagged in mask from another state.
+         *
+         * @param other state to copy from
+         * @param mask which fields to copy
+         */
+        public void set(PlayerState other, int mask) {
+            id = other.id;
+            if ((mask & POSITION) != 0) {
+                x = other.x;
+                y = other.y;
+            }
+            if ((mask & ROTATION) != 0) {
+                rotation = other.rotation;
+            }
+            if ((mask & HEALTH) != 0) {
+                health = other.health;
+            }
+            if ((mask & ALIVE) != 0) {
+                alive = other.alive;
+            }
+            if ((mask & KILLS) != 0) {
+                kills = other.kills;
+            }
+        }
+    }
+
+    /**
+     * Sent by client to tell the server which snapshot it has, so the server
+     * can send later snapshots as changes against it.
+     */
+    public static class SnapshotAck {
+
+        public int tick;
+    }
+
+    /**
+     * Sent by client to check ping latency and sync its clock. Also says how
+     * far behind the server the client draws other players (ms), 0 if it
+     * doesn't know yet.
      */
     public static class PingRequest {
 
         public long timestamp;
+        public int viewDelay;
     }
 
     /**
-     * Sent by server back to client to reply to ping.
+     * Sent by server back to client to reply to ping, with the time on the
+     * room's clock when it was answered.
      */
     public static class PingResponse {
 
         public long timestamp;
+        public long serverTime;
     }
 
     /**
@@ -86,17 +263,50 @@ public class Network {
     }
 
     /**
-     * Registers all network classes to Kryo serializer.
+     * Several messages sent together in one write. The receiver handles each
+     * one in order as if it had arrived on its own.
+     */
+    public static class MessageBatch {
+
+        public Object[] messages;
+    }
+
+    /**
+     * Sends a message that is fine to lose or be replaced by a newer one. Uses
+     * UDP when the connection has it, so one lost packet doesn't hold up
+     * everything queued behind it, and falls back to TCP when it doesn't.
+     *
+     * @param connection connection to send on
+     * @param object message to send
+     * @return number of bytes sent
+     */
+    public static int sendUnreliable(Connection connection, Object object) {
+        if (connection.getRemoteAddressUDP() != null) {
+            return connection.sendUDP(object);
+        }
+        return connection.sendTCP(object);
+    }
+
+    /**
+     * Registers all network classes to Kryo serializer. The high frequency
+     * messages use the packed serializers in NetworkSerializers.
      *
      * @param kryo Kryo instance to register classes with
      */
     public static void register(Kryo kryo) {
-        kryo.register(PlayerUpdate.class);
-        kryo.register(BulletUpdate.class);
-        kryo.register(PlayerHit.class);
+        kryo.register(PlayerUpdate.class, new NetworkSerializers.PlayerUpdateSerializer());
+        kryo.register(WorldSnapshot.class, new NetworkSerializers.WorldSnapshotSerializer());
+        kryo.register(PlayerState.class, new NetworkSerializers.PlayerStateSerializer());
+        kryo.register(SnapshotAck.class);
+        kryo.register(JoinRequest.class);
+        kryo.register(PlayerJoined.class);
+        kryo.register(ShotFired.class, new NetworkSerializers.ShotFiredSerializer());
+        kryo.register(PlayerHit.class, new NetworkSerializers.PlayerHitSerializer());
         kryo.register(PingRequest.class);
         kryo.register(PingResponse.class);
         kryo.register(PlayerDisconnected.class);
         kryo.register(KillFeed.class);
+        kryo.register(SharedMessage.class, new SharedMessage.SharedMessageSerializer());
+        kryo.register(MessageBatch.class, new NetworkSerializers.MessageBatchSerializer());
     }
 }
@@ -0,0 +1,215 @@
+package io.github.shooter.multiplayer;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.esotericsoftware.kryonet.Connection;
+
+/**
+ * Network message counts of one server or client, in total and for each
+ * connection. Everything is registered over JMX under
+ * io.github.shooter:type=Network, so it can be watched with jconsole or any
+ * other JMX client while the game runs.
+ */
+public class NetworkMetrics {
+
+    /**
+     * Numbers the endpoints in this JVM so their JMX names don't clash
+     */
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    /**
+     * JMX name of this endpoint, e.g. "server-1"
+     */
+    private final String name;
+    /**
+     * Counts over every connection
+     */
+    private final MessageStats total = new MessageStats();
+    /**
+     * Counts of each connection, by connection ID
+     */
+    private final Map<Integer, MessageStats> connections = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the metrics of one endpoint and registers their totals.
+     *
+     * @param endpoint what this end is, e.g. "server" or "client"
+     */
+    public NetworkMetrics(String endpoint) {
+        name = endpoint + "-" + instances.incrementAndGet();
+        register(objectName(null), total);
+    }
+
+    /**
+     * Counts a message sent on a connection.
+     *
+     * @param connection the connection
+     * @param type the message's type name
+     * @param bytes serialized size
+     */
+    public void recordSent(Connection connection, String type, long bytes) {
+        total.recordSent(type, bytes);
+        MessageStats stats = get(connection);
+        if (stats != null) {
+            stats.recordSent(type, bytes);
+        }
+    }
+
+    /**
+     * Counts a message received on a connection.
+     *
+     * @param connection the connection
+     * @param type the message's type name
+     * @param bytes serialized size
+     */
+    public void recordReceived(Connection connection, String type, long bytes) {
+        total.recordReceived(type, bytes);
+        MessageStats stats = get(connection);
+        if (stats != null) {
+            stats.recordReceived(type, bytes);
+        }
+    }
+
+    /**
+     * Counts a message received on a connection but dropped without being
+     * handled.
+     *
+     * @param connection the connection
+     * @param type the message's type name
+     */
+    public void recordDropped(Connection connection, String type) {
+        total.recordDropped(type);
+        MessageStats stats = get(connection);
+        if (stats != null) {
+            stats.recordDropped(type);
+        }
+    }
+
+    /**
+     * Returns the counts over every connection.
+     */
+    public MessageStats getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the counts of one connection, creating and registering them
+     * the first time.
+     *
+     * @param connection the connection
+     * @return its counts, or null if it isn't connected
+     */
+    public MessageStats get(Connection connection) {
+        MessageStats stats = connections.get(connection.getID());
+        if (stats == null && connection.isConnected()) {
+            synchronized (connections) {
+                stats = connections.get(connection.getID());
+                if (stats == null) {
+                    stats = new MessageStats();
+                    connections.put(connection.getID(), stats);
+                    register(objectName(connection.getID()), stats);
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Forgets a connection's counts once it has gone.
+     *
+     * @param connection the connection
+     */
+    public void remove(Connection connection) {
+        synchronized (connections) {
+            if (connections.remove(connection.getID()) != null) {
+                unregister(objectName(connection.getID()));
+            }
+        }
+    }
+
+    /**
+     * Unregisters everything from JMX.
+     */
+    public void close() {
+        synchronized (connections) {
+            for (Integer id : connections.keySet()) {
+                unregister(objectName(id));
+            }
+            connections.clear();
+        }
+        unregister(objectName(null));
+    }
+
+    /**
+     * Writes the totals out as text, one line per message type and
+     * direction, biggest share of bytes first.
+     *
+     * @return the stats, several lines
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Network stats (%s): %d connections, sent %.1f KB/s, received %.1f KB/s",
+                name, connections.size(), total.getBytesSentPerSecond() / 1024, total.getBytesReceivedPerSecond() / 1024));
+        dumpDirection(sb, "sent", total.getMessagesSentByType(), total.getBytesSentByType(), total.getBytesSent());
+        dumpDirection(sb, "received", total.getMessagesReceivedByType(), total.getBytesReceivedByType(), total.getBytesReceived());
+        for (Map.Entry<String, Long> entry : total.getMessagesDroppedByType().entrySet()) {
+            sb.append(String.format("%n  %-8s %-20s %10d msgs", "dropped", entry.getKey(), entry.getValue()));
+        }
+        return sb.toString();
+    }
+
+    private static void dumpDirection(StringBuilder sb, String direction, Map<String, Long> messages,
+            Map<String, Long> bytes, long totalBytes) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(bytes.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        for (Map.Entry<String, Long> entry : entries) {
+            Long found = messages.get(entry.getKey());
+            long count = found != null ? found : 0;
+            sb.append(String.format("%n  %-8s %-20s %10d msgs %12d bytes %5.1f%% %8.1f bytes/msg",
+                    direction, entry.getKey(), count, entry.getValue(),
+                    totalBytes > 0 ? entry.getValue() * 100.0 / totalBytes : 0.0,
+                    count > 0 ? (double) entry.getValue() / count : 0.0));
+        }
+    }
+
+    private ObjectName objectName(Integer connectionId) {
+        try {
+            String objectName = "io.github.shooter:type=Network,name=" + name;
+            if (connectionId != null) {
+                objectName += ",connection=" + connectionId;
+            }
+            return new ObjectName(objectName);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void register(ObjectName objectName, MessageStats stats) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(stats, objectName);
+        } catch (Exception e) {
+            // metrics are nice to have, the game runs without them
+            System.err.println("Could not register " + objectName + ": " + e.getMessage());
+        }
+    }
+
+    private static void unregister(ObjectName objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            System.err.println("Could not unregister " + objectName + ": " + e.getMessage());
+        }
+    }
+}
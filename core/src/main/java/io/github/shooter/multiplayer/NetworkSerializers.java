@@ -0,0 +1,475 @@
+package io.github.shooter.multiplayer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import io.github.shooter.multiplayer.Network.InputCommand;
+import io.github.shooter.multiplayer.Network.MessageBatch;
+import io.github.shooter.multiplayer.Network.PlayerHit;
+import io.github.shooter.multiplayer.Network.PlayerState;
+import io.github.shooter.multiplayer.Network.PlayerUpdate;
+import io.github.shooter.multiplayer.Network.ShotFired;
+import io.github.shooter.multiplayer.Network.WorldSnapshot;
+
+/**
+ * Hand written Kryo serializers for the messages sent many times a second.
+ * Instead of full 32 bit floats, positions are stored as 16 bit fixed point
+ * inside the known world bounds, angles as 16 bits, health in half points and
+ * booleans as single bits next to the change mask. Values are rounded to what
+ * the wire can carry, so anything compared across the network (like the
+ * snapshot baselines) should go through the quantize methods first.
+ */
+public class NetworkSerializers {
+
+    /**
+     * Largest value a 16 bit fixed point field can hold
+     */
+    private static final int MAX_16 = 0xFFFF;
+    /**
+     * Health is sent in steps of this size
+     */
+    private static final float HEALTH_STEP = 0.5f;
+    /**
+     * Damage is sent in steps of this size
+     */
+    private static final float DAMAGE_STEP = 0.1f;
+    /**
+     * Bit in the PlayerState flag byte holding the alive value
+     */
+    private static final int ALIVE_BIT = 0x40;
+    /**
+     * Largest value a movement axis byte holds
+     */
+    private static final int MAX_MOVE = 127;
+
+    /**
+     * Rounds a position to the nearest value the wire can carry.
+     *
+     * @param value coordinate to round
+     * @param max size of the world along this axis
+     * @return the rounded coordinate
+     */
+    public static float quantizePosition(float value, float max) {
+        return dequantize(quantize(value, max), max);
+    }
+
+    /**
+     * Rounds an angle to the nearest value the wire can carry.
+     *
+     * @param degrees angle in degrees
+     * @return the rounded angle, between 0 and 360
+     */
+    public static float quantizeAngle(float degrees) {
+        return dequantizeAngle(quantizeAngleBits(degrees));
+    }
+
+    /**
+     * Works out how many bytes PlayerStateSerializer writes for a state, so
+     * a snapshot can be kept within a byte budget without serializing it.
+     *
+     * @param state the state with its changed mask set
+     * @return size in bytes
+     */
+    public static int stateSize(PlayerState state) {
+        int size = varIntLength(state.id) + 1;
+        if ((state.changed & PlayerState.POSITION) != 0) {
+            size += 4;
+        }
+        if ((state.changed & PlayerState.ROTATION) != 0) {
+            size += 2;
+        }
+        if ((state.changed & PlayerState.HEALTH) != 0) {
+            size += 2;
+        }
+        if ((state.changed & PlayerState.KILLS) != 0) {
+            size += varIntLength(state.kills);
+        }
+        return size;
+    }
+
+    /**
+     * Returns how many bytes a positive varint takes.
+     */
+    private static int varIntLength(int value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Rounds a health value to the nearest half point.
+     *
+     * @param health health to round
+     * @return the rounded health
+     */
+    public static float quantizeHealth(float health) {
+        return Math.round(Math.max(0, health) / HEALTH_STEP) * HEALTH_STEP;
+    }
+
+    /**
+     * Rounds every field of a player state in place, so diffs made on it match
+     * what the other end will rebuild.
+     *
+     * @param state state to round
+     */
+    public static void quantize(PlayerState state) {
+        state.x = quantizePosition(state.x, ServerWorld.WORLD_WIDTH);
+        state.y = quantizePosition(state.y, ServerWorld.WORLD_HEIGHT);
+        state.rotation = quantizeAngle(state.rotation);
+        state.health = quantizeHealth(state.health);
+    }
+
+    /**
+     * Rounds one axis of a movement input to what fits in a signed byte. The
+     * client must move itself with the rounded value, or its prediction
+     * won't match what the server does with the input.
+     *
+     * @param move velocity along one axis
+     * @return the rounded velocity, clamped to the max move speed
+     */
+    public static float quantizeMove(float move) {
+        return dequantizeMove(quantizeMoveBits(move));
+    }
+
+    private static int quantizeMoveBits(float move) {
+        float clamped = Math.max(-Network.MAX_MOVE_SPEED, Math.min(Network.MAX_MOVE_SPEED, move));
+        return Math.round(clamped / Network.MAX_MOVE_SPEED * MAX_MOVE);
+    }
+
+    private static float dequantizeMove(int bits) {
+        return bits * Network.MAX_MOVE_SPEED / MAX_MOVE;
+    }
+
+    private static int quantize(float value, float max) {
+        float clamped = Math.max(0, Math.min(max, value));
+        return Math.round(clamped / max * MAX_16);
+    }
+
+    private static float dequantize(int bits, float max) {
+        return bits * max / MAX_16;
+    }
+
+    private static int quantizeAngleBits(float degrees) {
+        float wrapped = degrees % 360f;
+        if (wrapped < 0) {
+            wrapped += 360f;
+        }
+        return Math.round(wrapped / 360f * (MAX_16 + 1)) & MAX_16;
+    }
+
+    private static float dequantizeAngle(int bits) {
+        return bits * 360f / (MAX_16 + 1);
+    }
+
+    private static void writePosition(Output output, float x, float y) {
+        output.writeShort(quantize(x, ServerWorld.WORLD_WIDTH));
+        output.writeShort(quantize(y, ServerWorld.WORLD_HEIGHT));
+    }
+
+    private static float readX(Input input) {
+        return dequantize(input.readShort() & MAX_16, ServerWorld.WORLD_WIDTH);
+    }
+
+    private static float readY(Input input) {
+        return dequantize(input.readShort() & MAX_16, ServerWorld.WORLD_HEIGHT);
+    }
+
+    private static void writeAngle(Output output, float degrees) {
+        output.writeShort(quantizeAngleBits(degrees));
+    }
+
+    private static float readAngle(Input input) {
+        return dequantizeAngle(input.readShort() & MAX_16);
+    }
+
+    private static void writeHealth(Output output, float health) {
+        output.writeShort(Math.min(MAX_16, Math.round(Math.max(0, health) / HEALTH_STEP)));
+    }
+
+    private static float readHealth(Input input) {
+        return (input.readShort() & MAX_16) * HEALTH_STEP;
+    }
+
+    private static void writeDamage(Output output, float damage) {
+        output.writeInt(Math.round(Math.max(0, damage) / DAMAGE_STEP), true);
+    }
+
+    private static float readDamage(Input input) {
+        return input.readInt(true) * DAMAGE_STEP;
+    }
+
+    /**
+     * Reads a count written as a varint and checks it before anything is
+     * allocated for it, since a client could otherwise make the server
+     * allocate a huge array with a few bytes.
+     *
+     * @param input where to read from
+     * @param max largest count allowed
+     * @return the count
+     * @throws KryoException if the count is negative or over max
+     */
+    private static int readCount(Input input, int max) {
+        int count = input.readInt(true);
+        if (count < 0 || count > max) {
+            throw new KryoException("Count out of range: " + count + " (max " + max + ")");
+        }
+        return count;
+    }
+
+    /**
+     * Writes a PlayerState with only the fields flagged as changed. The change
+     * mask and the alive flag share one byte.
+     */
+    public static class PlayerStateSerializer extends Serializer<PlayerState> {
+
+        @Override
+        public void write(Kryo kryo, Output output, PlayerState state) {
+            output.writeInt(state.id, true);
+            output.writeByte(state.changed | (state.alive ? ALIVE_BIT : 0));
+            if ((state.changed & PlayerState.POSITION) != 0) {
+                writePosition(output, state.x, state.y);
+            }
+            if ((state.changed & PlayerState.ROTATION) != 0) {
+                writeAngle(output, state.rotation);
+            }
+            if ((state.changed & PlayerState.HEALTH) != 0) {
+                writeHealth(output, state.health);
+            }
+            if ((state.changed & PlayerState.KILLS) != 0) {
+                output.writeInt(state.kills, true);
+            }
+        }
+
+        @Override
+        public PlayerState read(Kryo kryo, Input input, Class<PlayerState> type) {
+            PlayerState state = new PlayerState();
+            state.id = input.readInt(true);
+            int flags = input.readByte() & 0xFF;
+            state.changed = flags & PlayerState.ALL;
+            state.alive = (flags & ALIVE_BIT) != 0;
+            if ((state.changed & PlayerState.POSITION) != 0) {
+                state.x = readX(input);
+                state.y = readY(input);
+            }
+            if ((state.changed & PlayerState.ROTATION) != 0) {
+                state.rotation = readAngle(input);
+            }
+            if ((state.changed & PlayerState.HEALTH) != 0) {
+                state.health = readHealth(input);
+            }
+            if ((state.changed & PlayerState.KILLS) != 0) {
+                state.kills = input.readInt(true);
+            }
+            return state;
+        }
+    }
+
+    /**
+     * Writes a WorldSnapshot as varint counts followed by the player states.
+     */
+    public static class WorldSnapshotSerializer extends Serializer<WorldSnapshot> {
+
+        private final PlayerStateSerializer stateSerializer = new PlayerStateSerializer();
+
+        @Override
+        public void write(Kryo kryo, Output output, WorldSnapshot snapshot) {
+            output.writeInt(snapshot.tick, true);
+            // +1 so the keyframe marker of -1 still fits in an unsigned varint
+            output.writeInt(snapshot.baselineTick + 1, true);
+            int playerCount = snapshot.players == null ? 0 : snapshot.players.length;
+            output.writeInt(playerCount, true);
+            for (int i = 0; i < playerCount; i++) {
+                stateSerializer.write(kryo, output, snapshot.players[i]);
+            }
+            writeIds(output, snapshot.removed);
+            writeIds(output, snapshot.deferred);
+            output.writeInt(snapshot.inputAck + 1, true);
+            if (snapshot.inputAck >= 0) {
+                writePosition(output, snapshot.x, snapshot.y);
+                output.writeBoolean(snapshot.alive);
+                output.writeInt(snapshot.kills, true);
+            }
+        }
+
+        @Override
+        public WorldSnapshot read(Kryo kryo, Input input, Class<WorldSnapshot> type) {
+            WorldSnapshot snapshot = new WorldSnapshot();
+            snapshot.tick = input.readInt(true);
+            snapshot.baselineTick = input.readInt(true) - 1;
+            snapshot.players = new PlayerState[readCount(input, Network.MAX_SNAPSHOT_PLAYERS)];
+            for (int i = 0; i < snapshot.players.length; i++) {
+                snapshot.players[i] = stateSerializer.read(kryo, input, PlayerState.class);
+            }
+            snapshot.removed = readIds(input);
+            snapshot.deferred = readIds(input);
+            snapshot.inputAck = input.readInt(true) - 1;
+            if (snapshot.inputAck >= 0) {
+                snapshot.x = readX(input);
+                snapshot.y = readY(input);
+                snapshot.alive = input.readBoolean();
+                snapshot.kills = input.readInt(true);
+            }
+            return snapshot;
+        }
+
+        private static void writeIds(Output output, int[] ids) {
+            int count = ids == null ? 0 : ids.length;
+            output.writeInt(count, true);
+            for (int i = 0; i < count; i++) {
+                output.writeInt(ids[i], true);
+            }
+        }
+
+        private static int[] readIds(Input input) {
+            int[] ids = new int[readCount(input, Network.MAX_SNAPSHOT_PLAYERS)];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = input.readInt(true);
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Writes a PlayerUpdate with a 16 bit rotation, the alive flag and each
+     * movement input as two signed bytes. Inputs have
+     * consecutive sequence numbers, so only the first one is written.
+     */
+    public static class PlayerUpdateSerializer extends Serializer<PlayerUpdate> {
+
+        @Override
+        public void write(Kryo kryo, Output output, PlayerUpdate update) {
+            output.writeInt(update.sequence, true);
+            int inputCount = update.inputs == null ? 0 : update.inputs.length;
+            output.writeInt(inputCount, true);
+            if (inputCount > 0) {
+                output.writeInt(update.inputs[0].sequence, true);
+                for (int i = 0; i < inputCount; i++) {
+                    output.writeByte(quantizeMoveBits(update.inputs[i].moveX));
+                    output.writeByte(quantizeMoveBits(update.inputs[i].moveY));
+                }
+            }
+            writeAngle(output, update.rotation);
+            output.writeBoolean(update.alive);
+        }
+
+        @Override
+        public PlayerUpdate read(Kryo kryo, Input input, Class<PlayerUpdate> type) {
+            PlayerUpdate update = new PlayerUpdate();
+            update.sequence = input.readInt(true);
+            update.inputs = new InputCommand[readCount(input, Network.MAX_INPUTS_PER_UPDATE)];
+            if (update.inputs.length > 0) {
+                int first = input.readInt(true);
+                for (int i = 0; i < update.inputs.length; i++) {
+                    InputCommand command = new InputCommand();
+                    command.sequence = first + i;
+                    command.moveX = dequantizeMove(input.readByte());
+                    command.moveY = dequantizeMove(input.readByte());
+                    update.inputs[i] = command;
+                }
+            }
+            update.rotation = readAngle(input);
+            update.alive = input.readBoolean();
+            return update;
+        }
+    }
+
+    /**
+     * Writes a ShotFired as the gun type in one byte, varint shot numbers, a
+     * fixed point origin and a 16 bit aim.
+     */
+    public static class ShotFiredSerializer extends Serializer<ShotFired> {
+
+        @Override
+        public void write(Kryo kryo, Output output, ShotFired shot) {
+            output.writeInt(shot.playerId, true);
+            output.writeByte(shot.weapon);
+            output.writeInt(shot.sequence, true);
+            output.writeInt(shot.count, true);
+            writePosition(output, shot.x, shot.y);
+            writeAngle(output, shot.aim);
+        }
+
+        @Override
+        public ShotFired read(Kryo kryo, Input input, Class<ShotFired> type) {
+            ShotFired shot = new ShotFired();
+            shot.playerId = input.readInt(true);
+            shot.weapon = input.readByte() & 0xFF;
+            shot.sequence = input.readInt(true);
+            shot.count = input.readInt(true);
+            shot.x = readX(input);
+            shot.y = readY(input);
+            shot.aim = readAngle(input);
+            return shot;
+        }
+    }
+
+    /**
+     * Writes a PlayerHit with varint IDs and the fatal flag in one byte.
+     */
+    public static class PlayerHitSerializer extends Serializer<PlayerHit> {
+
+        @Override
+        public void write(Kryo kryo, Output output, PlayerHit hit) {
+            output.writeInt(hit.targetId, true);
+            output.writeInt(hit.sourceId, true);
+            writeDamage(output, hit.damage);
+            output.writeBoolean(hit.fatal);
+            if (hit.fatal) {
+                output.writeInt(hit.newKillCount, true);
+            }
+        }
+
+        @Override
+        public PlayerHit read(Kryo kryo, Input input, Class<PlayerHit> type) {
+            PlayerHit hit = new PlayerHit();
+            hit.targetId = input.readInt(true);
+            hit.sourceId = input.readInt(true);
+            hit.damage = readDamage(input);
+            hit.fatal = input.readBoolean();
+            if (hit.fatal) {
+                hit.newKillCount = input.readInt(true);
+            }
+            return hit;
+        }
+    }
+
+    /**
+     * Writes a MessageBatch as a varint count followed by each message with
+     * its class ID.
+     */
+    public static class MessageBatchSerializer extends Serializer<MessageBatch> {
+
+        @Override
+        public void write(Kryo kryo, Output output, MessageBatch batch) {
+            MeteredSerialization.Meter meter = MeteredSerialization.meter(kryo);
+            output.writeInt(batch.messages.length, true);
+            for (Object message : batch.messages) {
+                long start = output.total();
+                kryo.writeClassAndObject(output, message);
+                if (meter != null) {
+                    meter.record(message, output.total() - start);
+                }
+            }
+        }
+
+        @Override
+        public MessageBatch read(Kryo kryo, Input input, Class<MessageBatch> type) {
+            MessageBatch batch = new MessageBatch();
+            MeteredSerialization.Meter meter = MeteredSerialization.meter(kryo);
+            batch.messages = new Object[readCount(input, Network.MAX_BATCH_SIZE)];
+            for (int i = 0; i < batch.messages.length; i++) {
+                long start = input.total();
+                batch.messages[i] = kryo.readClassAndObject(input);
+                if (meter != null) {
+                    meter.record(batch.messages[i], input.total() - start);
+                }
+            }
+            return batch;
+        }
+    }
+}
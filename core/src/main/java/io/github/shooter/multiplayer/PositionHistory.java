@@ -0,0 +1,101 @@
+package io.github.shooter.multiplayer;
+
+/**
+ * Remembers where a player was on each of the last few server ticks, so a
+ * shot can be checked against where the shooter actually saw them. Ticks are
+ * recorded in increasing order, so finding one is a binary search.
+ */
+public class PositionHistory {
+
+    /**
+     * Tick of each record
+     */
+    private final int[] ticks;
+    /**
+     * Position of each record
+     */
+    private final float[] xs, ys;
+    /**
+     * Whether the player was alive in each record
+     */
+    private final boolean[] alive;
+    /**
+     * Index the next record is written to
+     */
+    private int head = 0;
+    /**
+     * Number of records stored
+     */
+    private int count = 0;
+
+    /**
+     * Creates an empty history.
+     *
+     * @param capacity how many ticks to remember
+     */
+    public PositionHistory(int capacity) {
+        ticks = new int[capacity];
+        xs = new float[capacity];
+        ys = new float[capacity];
+        alive = new boolean[capacity];
+    }
+
+    /**
+     * Records where the player is on a tick. Ticks must go up, a tick not
+     * newer than the last one recorded replaces it.
+     *
+     * @param tick the server tick
+     * @param x x position
+     * @param y y position
+     * @param isAlive whether the player is alive
+     */
+    public void record(int tick, float x, float y, boolean isAlive) {
+        int i;
+        if (count > 0 && tick <= ticks[index(count - 1)]) {
+            i = index(count - 1);
+        } else {
+            i = head;
+            head = (head + 1) % ticks.length;
+            count = Math.min(count + 1, ticks.length);
+        }
+        ticks[i] = tick;
+        xs[i] = x;
+        ys[i] = y;
+        alive[i] = isAlive;
+    }
+
+    /**
+     * Finds the newest record at or before a tick. If the tick is older than
+     * everything remembered, the oldest record is used.
+     *
+     * @param tick the tick to look up
+     * @param out gets x and y in that order
+     * @return whether the player was alive then, false if nothing is recorded
+     */
+    public boolean find(int tick, float[] out) {
+        if (count == 0) {
+            return false;
+        }
+        int low = 0, high = count - 1, found = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (ticks[index(mid)] <= tick) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int i = index(found);
+        out[0] = xs[i];
+        out[1] = ys[i];
+        return alive[i];
+    }
+
+    /**
+     * Turns a position counted from the oldest record into an array index.
+     */
+    private int index(int i) {
+        return (head - count + i + ticks.length) % ticks.length;
+    }
+}
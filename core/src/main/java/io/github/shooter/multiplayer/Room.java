@@ -0,0 +1,412 @@
+package io.github.shooter.multiplayer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.TimeUtils;
+import com.esotericsoftware.kryonet.Connection;
+
+import io.github.shooter.multiplayer.Network.PlayerHit;
+import io.github.shooter.multiplayer.Network.PlayerState;
+import io.github.shooter.multiplayer.Network.WorldSnapshot;
+
+/**
+ * One match on the server. Each room has its own world, its own tick count
+ * and its own set of clients, so rooms never see each other's players or
+ * messages. A room's tick runs on whichever pool thread is free, but never on
+ * two threads at once.
+ */
+public class Room {
+
+    /**
+     * Most ticks between updates about a player outside a client's area of
+     * interest
+     */
+    public static final int FAR_UPDATE_INTERVAL = Network.TICK_RATE / 2;
+    /**
+     * How long a client's connection can stay congested before it is
+     * dropped (ms)
+     */
+    public static final long MAX_CONGESTED_TIME = 5000;
+    /**
+     * Bytes waiting in a client's write buffer past which it is dropped
+     * straight away, well before Kryonet's own overflow would
+     */
+    public static final int SHED_BYTES = Network.WRITE_BUFFER_SIZE / 2;
+
+    /**
+     * ID of the room, for logging
+     */
+    private final int id;
+    /**
+     * The authoritative game world of this match
+     */
+    private final ServerWorld world;
+    /**
+     * Clients in the room, by connection ID
+     */
+    private final Map<Integer, Connection> connections = new ConcurrentHashMap<>();
+    /**
+     * Snapshot encoder for each client in the room, by connection ID
+     */
+    private final Map<Integer, SnapshotEncoder> encoders = new ConcurrentHashMap<>();
+    /**
+     * Outgoing message batcher for each client in the room, by connection ID
+     */
+    private final Map<Integer, MessageBatcher> batchers = new ConcurrentHashMap<>();
+    /**
+     * How far behind the server each client says it sees other players, by
+     * connection ID (ms)
+     */
+    private final Map<Integer, Integer> viewDelays = new ConcurrentHashMap<>();
+    /**
+     * When the room opened, the first tick runs right away (ns)
+     */
+    private final long startTime = TimeUtils.nanoTime();
+    /**
+     * Number of ticks run since the room opened
+     */
+    private int tick = 0;
+    /**
+     * The room's scheduled tick, cancelled when the room closes
+     */
+    private ScheduledFuture<?> future;
+    /**
+     * Handles the messages clients in the room send
+     */
+    private final ServerListener listener;
+    /**
+     * Messages received from clients but not handled yet, from Kryonet's
+     * thread to whichever thread runs the room's tick. Runs of a fixed rate
+     * task happen one after another, so there is still only one consumer.
+     */
+    private final SpscQueue<Received> received = new SpscQueue<>();
+    /**
+     * Same as received for loopback clients, whose messages come from the
+     * server's loopback thread instead of Kryonet's
+     */
+    private final SpscQueue<Received> loopbackReceived = new SpscQueue<>();
+    /**
+     * Where the time each tick takes is recorded, shared by every room
+     */
+    private final TickStats tickStats;
+
+    /**
+     * Creates an empty room.
+     *
+     * @param id ID of the room
+     * @param obstacles the map's collision rectangles, copied so rooms on
+     * different threads don't share libGDX's reused iterators
+     * @param listener handles the messages clients in the room send
+     * @param tickStats records how long each tick takes
+     */
+    public Room(int id, Array<Rectangle> obstacles, ServerListener listener, TickStats tickStats) {
+        this.id = id;
+        this.world = new ServerWorld(new Array<>(obstacles));
+        this.listener = listener;
+        this.tickStats = tickStats;
+    }
+
+    /**
+     * Adds a client to the room and spawns their player.
+     *
+     * @param connection the client
+     */
+    public void add(Connection connection) {
+        world.addPlayer(connection.getID());
+        encoders.put(connection.getID(), new SnapshotEncoder());
+        batchers.put(connection.getID(), new MessageBatcher(connection));
+        connections.put(connection.getID(), connection);
+    }
+
+    /**
+     * Removes a client and their player from the room.
+     *
+     * @param connection the client
+     */
+    public void remove(Connection connection) {
+        connections.remove(connection.getID());
+        world.removePlayer(connection.getID());
+        encoders.remove(connection.getID());
+        batchers.remove(connection.getID());
+        viewDelays.remove(connection.getID());
+    }
+
+    /**
+     * Returns the time on the room's clock, which is what snapshots are
+     * stamped with: tick n is at n ticks' worth of milliseconds. Works from
+     * any thread.
+     *
+     * @return room time (ms)
+     */
+    public long getTime() {
+        return TimeUtils.nanosToMillis(TimeUtils.nanoTime() - startTime) + 1000L / Network.TICK_RATE;
+    }
+
+    /**
+     * Stores how far behind the server a client says it sees other players.
+     *
+     * @param connectionId the client's connection ID
+     * @param delay the delay in milliseconds
+     */
+    public void setViewDelay(int connectionId, int delay) {
+        if (connections.containsKey(connectionId)) {
+            viewDelays.put(connectionId, Math.max(0, delay));
+        }
+    }
+
+    /**
+     * Returns how far behind the server a client sees other players.
+     *
+     * @param connectionId the client's connection ID
+     * @return the delay in milliseconds, or -1 if the client hasn't said
+     */
+    public int getViewDelay(int connectionId) {
+        Integer delay = viewDelays.get(connectionId);
+        return delay != null ? delay : -1;
+    }
+
+    /**
+     * Queues a message from a client to be handled at the start of the next
+     * tick. Only call from Kryonet's thread, or the server's loopback thread
+     * for a loopback client.
+     *
+     * @param connection the client that sent it
+     * @param message the message
+     */
+    public void queueReceived(Connection connection, Object message) {
+        SpscQueue<Received> queue = connection instanceof LoopbackConnection ? loopbackReceived : received;
+        queue.offer(new Received(connection, message));
+    }
+
+    /**
+     * Handles every message queued since the last tick, then steps the
+     * world once and sends the results to every client in the room. Hits go
+     * out before the snapshots so clients see damage in the order it
+     * happened. Each client gets its own snapshot, delta compressed against
+     * whatever it last acknowledged and kept within the client's byte
+     * budget. Players near the client are weighted to update every tick,
+     * players further away less often.
+     * Everything queued for a client since the last tick goes out together
+     * at the end.
+     *
+     * @param dt tick length in seconds
+     */
+    public void tick(float dt) {
+        long start = TimeUtils.nanoTime();
+        try {
+            Received r;
+            while ((r = received.poll()) != null) {
+                listener.handle(r.connection, this, r.message);
+            }
+            while ((r = loopbackReceived.poll()) != null) {
+                listener.handle(r.connection, this, r.message);
+            }
+            tick++;
+            if (tick % Network.TICK_RATE == 0) {
+                // keeps each connection's round trip time fresh for lag compensation
+                for (Connection connection : connections.values()) {
+                    connection.updateReturnTripTime();
+                }
+            }
+            List<PlayerHit> hits = world.step(tick, dt);
+            for (PlayerHit hit : hits) {
+                SharedMessage shared = SharedMessage.encode(hit);
+                for (MessageBatcher batcher : batchers.values()) {
+                    batcher.queueTCP(shared);
+                }
+            }
+            List<PlayerState> states = world.getPlayerStates();
+            Map<Integer, PlayerState> statesById = new HashMap<>();
+            for (PlayerState state : states) {
+                NetworkSerializers.quantize(state);
+                statesById.put(state.id, state);
+            }
+            for (Connection connection : connections.values()) {
+                SnapshotEncoder encoder = encoders.get(connection.getID());
+                MessageBatcher batcher = batchers.get(connection.getID());
+                if (encoder == null || batcher == null) {
+                    continue;
+                }
+                if (shedIfStuck(connection, batcher)) {
+                    continue;
+                }
+                // a congested client gets smaller snapshots until it catches up
+                encoder.setByteBudget(batcher.isCongested()
+                        ? SnapshotEncoder.DEFAULT_BYTE_BUDGET / 4 : SnapshotEncoder.DEFAULT_BYTE_BUDGET);
+                List<PlayerState> others = new ArrayList<>(states.size());
+                for (PlayerState state : states) {
+                    if (state.id != connection.getID()) {
+                        others.add(state);
+                    }
+                }
+                Map<Integer, Float> weights = interestWeights(statesById.get(connection.getID()), others);
+                WorldSnapshot snapshot = encoder.encode(tick, others, weights);
+                world.fillInputAck(connection.getID(), snapshot);
+                batcher.queueUnreliable(snapshot);
+            }
+            for (MessageBatcher batcher : batchers.values()) {
+                batcher.flush();
+            }
+        } catch (Exception e) {
+            // an exception here would cancel the tick for good
+            System.err.println("Error in room " + id + " tick " + tick + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+        tickStats.record(TimeUtils.nanoTime() - start);
+    }
+
+    /**
+     * Drops a client whose connection can't keep up, so its write buffer
+     * never overflows. That only happens once thinning out its messages
+     * and shrinking its snapshots hasn't helped for a while, or when even
+     * the reliable messages are piling up fast. Closing the connection runs
+     * the normal disconnect, so everyone else just sees the player leave.
+     *
+     * @param connection the client
+     * @param batcher the client's batcher
+     * @return true if the client was dropped
+     */
+    private boolean shedIfStuck(Connection connection, MessageBatcher batcher) {
+        int pending = batcher.getPendingBytes();
+        if (pending > SHED_BYTES || batcher.getCongestedTime() > MAX_CONGESTED_TIME) {
+            System.out.println("Dropping client " + connection.getID() + " in room " + id + ", " + pending
+                    + " bytes unsent");
+            connection.close();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Works out how much each other player matters to a client per tick.
+     * Players the world's grid finds within the area of interest get every
+     * tick, everyone else one update every FAR_UPDATE_INTERVAL ticks, so
+     * this costs one grid lookup per client instead of a distance per pair.
+     *
+     * @param self the client's own player, or null if they have none yet
+     * @param others every other player
+     * @return the weight of each other player by ID, 1 meaning every tick
+     */
+    private Map<Integer, Float> interestWeights(PlayerState self, List<PlayerState> others) {
+        Map<Integer, Float> weights = new HashMap<>();
+        if (self == null) {
+            return weights;
+        }
+        for (PlayerState state : others) {
+            weights.put(state.id, 1f / FAR_UPDATE_INTERVAL);
+        }
+        for (Integer near : world.getPlayersNear(self.x, self.y, ServerWorld.INTEREST_RADIUS)) {
+            if (weights.containsKey(near)) {
+                weights.put(near, 1f);
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Queues a reliable message for every client in the room except one.
+     *
+     * @param exceptId connection ID to skip
+     * @param message the message to send
+     */
+    public void queueToOthers(int exceptId, Object message) {
+        for (Map.Entry<Integer, MessageBatcher> entry : batchers.entrySet()) {
+            if (entry.getKey() != exceptId) {
+                entry.getValue().queueTCP(message);
+            }
+        }
+    }
+
+    /**
+     * Returns the ID of the room.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the room's world.
+     */
+    public ServerWorld getWorld() {
+        return world;
+    }
+
+    /**
+     * Returns the snapshot encoder of a client in the room.
+     *
+     * @param connectionId the client's connection ID
+     * @return the encoder, or null if the client isn't in this room
+     */
+    public SnapshotEncoder getEncoder(int connectionId) {
+        return encoders.get(connectionId);
+    }
+
+    /**
+     * Returns the message batcher of a client in the room.
+     *
+     * @param connectionId the client's connection ID
+     * @return the batcher, or null if the client isn't in this room
+     */
+    public MessageBatcher getBatcher(int connectionId) {
+        return batchers.get(connectionId);
+    }
+
+    /**
+     * Returns the message batcher of every client in the room, by connection
+     * ID.
+     */
+    public Map<Integer, MessageBatcher> getBatchers() {
+        return batchers;
+    }
+
+    /**
+     * Returns how many clients are in the room.
+     */
+    public int getPlayerCount() {
+        return connections.size();
+    }
+
+    /**
+     * Returns the number of ticks run since the room opened.
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * Sets the scheduled tick so it can be cancelled when the room closes.
+     */
+    void setFuture(ScheduledFuture<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * Stops the room's tick.
+     */
+    void close() {
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * A message and the client it came from.
+     */
+    private static class Received {
+
+        final Connection connection;
+        final Object message;
+
+        Received(Connection connection, Object message) {
+            this.connection = connection;
+            this.message = message;
+        }
+    }
+}
@@ -1,69 +1,201 @@
 package io.github.shooter.multiplayer;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.FrameworkMessage;
 import com.esotericsoftware.kryonet.Listener;
-import com.esotericsoftware.kryonet.Server;
 
-import io.github.shooter.multiplayer.Network.BulletUpdate;
+import io.github.shooter.multiplayer.Network.JoinRequest;
+import io.github.shooter.multiplayer.Network.MessageBatch;
 import io.github.shooter.multiplayer.Network.PingRequest;
 import io.github.shooter.multiplayer.Network.PingResponse;
 import io.github.shooter.multiplayer.Network.PlayerDisconnected;
-import io.github.shooter.multiplayer.Network.PlayerHit;
+import io.github.shooter.multiplayer.Network.PlayerJoined;
 import io.github.shooter.multiplayer.Network.PlayerUpdate;
+import io.github.shooter.multiplayer.Network.ShotFired;
+import io.github.shooter.multiplayer.Network.SnapshotAck;
 
 /**
- * Listens for messages from clients on the server side. Handles different
- * network packets and broadcasts them.
+ * Listens for messages from clients on the server side. Feeds what clients
+ * do into the world of the room they are in, which decides the outcome on
+ * the room's next tick. Kryonet's thread only reads and unpacks messages and
+ * queues them on the sender's room, the room handles them on its own thread
+ * at the start of its tick, so slow game logic never holds up the sockets.
  */
 public class ServerListener extends Listener {
 
     /**
-     * The Kryonet server instance
+     * The server that keeps track of rooms
+     */
+    private GameServer gameServer;
+    /**
+     * Rate limits of each connected client, by connection ID
      */
-    private Server server;
+    private final Map<Integer, FloodGuard> guards = new ConcurrentHashMap<>();
 
     /**
      * Creates listener for the given server.
      *
-     * @param server the Kryonet server to send messages on
+     * @param gameServer the server whose rooms clients are put in
      */
-    public ServerListener(Server server) {
-        this.server = server;
+    public ServerListener(GameServer gameServer) {
+        this.gameServer = gameServer;
     }
 
     /**
-     * Called when server gets message from client.
+     * Called on Kryonet's thread, or the loopback thread for loopback
+     * clients, when server gets message from client. A
+     * batch is unpacked and queued one message at a time in the order the
+     * client queued them. Messages over the client's rate limits are dropped
+     * and counted first. Pings are answered right here, everything else is
+     * queued on the client's room.
      *
      * @param connection the client connection that sent this
      * @param object the message object received
      */
     @Override
     public void received(Connection connection, Object object) {
-        if (object instanceof PlayerUpdate) {
-            PlayerUpdate update = (PlayerUpdate) object;
-            server.sendToAllExceptTCP(connection.getID(), update);
-        } else if (object instanceof BulletUpdate) {
-            BulletUpdate update = (BulletUpdate) object;
-            server.sendToAllExceptTCP(connection.getID(), update);
-        } else if (object instanceof PlayerHit) {
-            PlayerHit hit = (PlayerHit) object;
-            server.sendToAllTCP(hit);
+        if (object instanceof MessageBatch) {
+            for (Object message : ((MessageBatch) object).messages) {
+                received(connection, message);
+            }
+        } else if (object instanceof FrameworkMessage) {
+            // keep alives and the like, Kryonet already handled them
+        } else if (!allow(connection, object)) {
+            gameServer.getMetrics().recordDropped(connection, object.getClass().getSimpleName());
         } else if (object instanceof PingRequest) {
             PingRequest request = (PingRequest) object;
+            Room room = gameServer.getRoom(connection);
             PingResponse response = new PingResponse();
             response.timestamp = request.timestamp;
+            if (room != null) {
+                response.serverTime = room.getTime();
+                if (request.viewDelay > 0) {
+                    room.setViewDelay(connection.getID(), request.viewDelay);
+                }
+            }
+            // not batched, waiting for the next tick would throw the ping and clock off
             connection.sendTCP(response);
+        } else {
+            Room room = gameServer.getRoom(connection);
+            if (room != null) {
+                room.queueReceived(connection, object);
+            }
+        }
+    }
+
+    /**
+     * Handles a message from a client on its room's thread. Shots are relayed
+     * on the next flush (over UDP when possible) to the clients in the same
+     * room close enough to see them, but hits are only decided by the
+     * server. PlayerHit messages from clients are ignored. The client may
+     * have left since the message was queued, the world ignores messages
+     * from players it doesn't know.
+     *
+     * @param connection the client connection that sent this
+     * @param room the room the client is in
+     * @param object the message object received
+     */
+    void handle(Connection connection, Room room, Object object) {
+        ServerWorld world = room.getWorld();
+        if (object instanceof PlayerUpdate) {
+            PlayerUpdate update = (PlayerUpdate) object;
+            world.applyPlayerUpdate(connection.getID(), update);
+        } else if (object instanceof SnapshotAck) {
+            SnapshotEncoder encoder = room.getEncoder(connection.getID());
+            if (encoder != null) {
+                encoder.ack(((SnapshotAck) object).tick);
+            }
+        } else if (object instanceof ShotFired) {
+            ShotFired shot = (ShotFired) object;
+            shot.playerId = connection.getID();
+            if (!world.spawnShot(connection.getID(), shot, rewindTicks(connection, room))) {
+                return;
+            }
+            List<Integer> near = world.getPlayersNear(shot.x, shot.y, ServerWorld.BULLET_INTEREST_RADIUS);
+            SharedMessage shared = SharedMessage.encode(shot);
+            for (Map.Entry<Integer, MessageBatcher> entry : room.getBatchers().entrySet()) {
+                if (entry.getKey() != connection.getID() && near.contains(entry.getKey())) {
+                    entry.getValue().queueUnreliable(shared);
+                }
+            }
+        } else if (object instanceof JoinRequest) {
+            handleJoin(connection, room, (JoinRequest) object);
+        }
+    }
+
+    /**
+     * Checks a message against its sender's rate limits.
+     *
+     * @param connection the client that sent it
+     * @param message the message
+     * @return true if it should be handled
+     */
+    private boolean allow(Connection connection, Object message) {
+        FloodGuard guard = guards.get(connection.getID());
+        return guard != null && guard.allow(message);
+    }
+
+    /**
+     * Works out how many ticks behind the server a client's view of the other
+     * players is. Clients report this from their clock sync (smoothed round
+     * trip plus the delay they draw other players with). Until one has, it is
+     * guessed from Kryonet's last round trip and the default delay.
+     *
+     * @param connection the client
+     * @param room the room the client is in
+     * @return ticks to rewind targets by for its shots
+     */
+    private static int rewindTicks(Connection connection, Room room) {
+        long viewDelay = room.getViewDelay(connection.getID());
+        if (viewDelay < 0) {
+            viewDelay = Math.max(0, connection.getReturnTripTime()) + GameClient.DEFAULT_INTERPOLATION_DELAY;
         }
+        return Math.round(viewDelay * Network.TICK_RATE / 1000f);
     }
 
     /**
-     * Called when client connects.
+     * Registers a new client's username, sends it the names of everyone
+     * already playing in its room and tells everyone else there about it.
+     *
+     * @param connection the client that joined
+     * @param room the room the client is in
+     * @param request the join request it sent
+     */
+    private void handleJoin(Connection connection, Room room, JoinRequest request) {
+        String username = room.getWorld().setUsername(connection.getID(), request.username);
+        if (username == null) {
+            return;
+        }
+        MessageBatcher batcher = room.getBatcher(connection.getID());
+        for (Map.Entry<Integer, String> entry : room.getWorld().getUsernames().entrySet()) {
+            if (entry.getKey() != connection.getID() && batcher != null) {
+                PlayerJoined existing = new PlayerJoined();
+                existing.id = entry.getKey();
+                existing.username = entry.getValue();
+                batcher.queueTCP(existing);
+            }
+        }
+        PlayerJoined joined = new PlayerJoined();
+        joined.id = connection.getID();
+        joined.username = username;
+        room.queueToOthers(connection.getID(), SharedMessage.encode(joined));
+    }
+
+    /**
+     * Called when client connects. The client is put in a room straight
+     * away.
      *
      * @param connection the client that connected
      */
     @Override
     public void connected(Connection connection) {
-        System.out.println("Client connected: " + connection.getID());
+        guards.put(connection.getID(), new FloodGuard());
+        Room room = gameServer.joinRoom(connection);
+        System.out.println("Client connected: " + connection.getID() + " (room " + room.getId() + ")");
     }
 
     /**
@@ -74,8 +206,13 @@ public class ServerListener extends Listener {
     @Override
     public void disconnected(Connection connection) {
         System.out.println("Client disconnected: " + connection.getID());
-        PlayerDisconnected disconnected = new PlayerDisconnected();
-        disconnected.id = connection.getID();
-        server.sendToAllExceptTCP(connection.getID(), disconnected);
+        Room room = gameServer.leaveRoom(connection);
+        gameServer.getMetrics().remove(connection);
+        guards.remove(connection.getID());
+        if (room != null) {
+            PlayerDisconnected disconnected = new PlayerDisconnected();
+            disconnected.id = connection.getID();
+            room.queueToOthers(connection.getID(), SharedMessage.encode(disconnected));
+        }
     }
 }
@@ -0,0 +1,501 @@
+package io.github.shooter.multiplayer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.badlogic.gdx.math.Circle;
+import com.badlogic.gdx.math.Intersector;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.TimeUtils;
+
+import io.github.shooter.game.Bullet;
+import io.github.shooter.game.Player;
+import io.github.shooter.game.weapons.Gun;
+import io.github.shooter.game.weapons.GunFactory;
+import io.github.shooter.game.weapons.ShotPattern;
+import io.github.shooter.multiplayer.Network.InputCommand;
+import io.github.shooter.multiplayer.Network.PlayerHit;
+import io.github.shooter.multiplayer.Network.PlayerState;
+import io.github.shooter.multiplayer.Network.PlayerUpdate;
+import io.github.shooter.multiplayer.Network.ShotFired;
+import io.github.shooter.multiplayer.Network.WorldSnapshot;
+
+/**
+ * The server's copy of the game world. Clients send in what they are doing,
+ * but health, kills and bullet hits are only ever decided here, once per tick.
+ * All methods are synchronized because messages come in on the network thread
+ * while the tick runs on its own thread.
+ */
+public class ServerWorld {
+
+    /**
+     * The width and height of the game world
+     */
+    public static final float WORLD_WIDTH = 1312, WORLD_HEIGHT = 1232;
+    /**
+     * The radius of the player hitbox
+     */
+    public static final float PLAYER_RADIUS = 16f;
+    /**
+     * Health a player spawns with
+     */
+    public static final float MAX_HEALTH = 200f;
+    /**
+     * Delay before a dead player is allowed back in (ms)
+     */
+    public static final long RESPAWN_DELAY = 3000;
+    /**
+     * Kills needed to win a round
+     */
+    public static final int KILLS_TO_WIN = 10;
+    /**
+     * Time between the winning kill and everyone's kills going back to zero,
+     * long enough for every client to see who won (ms)
+     */
+    public static final long ROUND_RESET_DELAY = 5000;
+    /**
+     * Longest username the server will store
+     */
+    public static final int MAX_USERNAME_LENGTH = 16;
+    /**
+     * Most movement inputs a player can have saved up, so a lag spike can be
+     * caught up on but not turned into a speed boost
+     */
+    public static final float MAX_INPUT_BURST = Network.INPUT_RATE / 2f;
+    /**
+     * Furthest back a shot is checked, so a very laggy shooter can't hit
+     * someone who has long since ducked behind a wall (ticks)
+     */
+    public static final int MAX_REWIND_TICKS = Network.TICK_RATE / 4;
+    /**
+     * Most shots accepted in one message, more than any gun fires between
+     * two client sends
+     */
+    public static final int MAX_SHOTS_PER_MESSAGE = 8;
+    /**
+     * How far a shot may start from where the server has the shooter before
+     * it is moved back to the server's position
+     */
+    public static final float MAX_SHOT_OFFSET = 64f;
+    /**
+     * How far from a player the server sends full rate updates. The camera
+     * shows about 400x370 of the map, so this is half its diagonal plus a
+     * margin for fast movement
+     */
+    public static final float INTEREST_RADIUS = 400f;
+    /**
+     * How far from a player shots get relayed, since a bullet fired outside
+     * the view can still fly into it
+     */
+    public static final float BULLET_INTEREST_RADIUS = INTEREST_RADIUS + 400f;
+
+    /**
+     * Players in the world, indexed by connection ID
+     */
+    private final Map<Integer, ServerPlayer> players = new LinkedHashMap<>();
+    /**
+     * Bullets currently flying
+     */
+    private final ArrayList<ServerBullet> bullets = new ArrayList<>();
+    /**
+     * Obstacles that stop bullets
+     */
+    private final Array<Rectangle> obstacles;
+    /**
+     * Player positions bucketed by area, rebuilt every step
+     */
+    private final SpatialGrid grid = new SpatialGrid(WORLD_WIDTH, WORLD_HEIGHT, INTEREST_RADIUS);
+    /**
+     * When the current round's kills get reset (ms), 0 while nobody has won
+     */
+    private long roundResetTime;
+
+    /**
+     * Creates an empty world with the given obstacles.
+     *
+     * @param obstacles the map's collision rectangles
+     */
+    public ServerWorld(Array<Rectangle> obstacles) {
+        this.obstacles = obstacles;
+    }
+
+    /**
+     * Adds a player that just connected, at a spawn point the server picks.
+     *
+     * @param id connection ID of the player
+     */
+    public synchronized void addPlayer(int id) {
+        ServerPlayer p = new ServerPlayer(id, WORLD_WIDTH / 2f, WORLD_HEIGHT / 2f);
+        Player.placeAtSpawn(p.hitbox, WORLD_WIDTH, WORLD_HEIGHT, otherHitboxes(p), obstacles);
+        players.put(id, p);
+    }
+
+    /**
+     * Removes a player and any bullets they still have in the air.
+     *
+     * @param id connection ID of the player
+     */
+    public synchronized void removePlayer(int id) {
+        players.remove(id);
+        for (Iterator<ServerBullet> it = bullets.iterator(); it.hasNext();) {
+            if (it.next().bullet.getOwnerId() == id) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Applies a client's update. The player is moved by running each input
+     * the server hasn't seen yet through the same movement code the client
+     * uses, so the client's position is never trusted. A client can't move
+     * faster by sending extra inputs, each player only gets INPUT_RATE inputs
+     * worth of movement per second. Health and kills from the client are
+     * ignored, the server keeps its own. A dead player only comes back once
+     * the respawn delay is over, at a spot the server picks. Updates older
+     * than the last one applied are dropped since UDP can reorder them.
+     *
+     * @param id connection ID the update came from
+     * @param update the update sent by the client
+     */
+    public synchronized void applyPlayerUpdate(int id, PlayerUpdate update) {
+        ServerPlayer p = players.get(id);
+        if (p == null || update.sequence <= p.lastUpdateSequence) {
+            return;
+        }
+        p.lastUpdateSequence = update.sequence;
+        p.rotation = update.rotation;
+
+        if (!p.alive && update.alive && TimeUtils.millis() >= p.respawnTime) {
+            p.alive = true;
+            p.health = MAX_HEALTH;
+            Player.placeAtSpawn(p.hitbox, WORLD_WIDTH, WORLD_HEIGHT, otherHitboxes(p), obstacles);
+        }
+
+        long now = TimeUtils.millis();
+        p.inputBudget = Math.min(MAX_INPUT_BURST, p.inputBudget + (now - p.lastInputTime) * Network.INPUT_RATE / 1000f);
+        p.lastInputTime = now;
+        if (update.inputs != null) {
+            for (InputCommand input : update.inputs) {
+                if (input.sequence <= p.lastInputSequence) {
+                    continue;
+                }
+                p.lastInputSequence = input.sequence;
+                if (p.alive && p.inputBudget >= 1) {
+                    p.inputBudget--;
+                    Player.move(p.hitbox, clampMove(input.moveX), clampMove(input.moveY), Network.INPUT_STEP,
+                            WORLD_WIDTH, WORLD_HEIGHT, obstacles);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps a movement input within the max move speed.
+     */
+    private static float clampMove(float move) {
+        return Math.max(-Network.MAX_MOVE_SPEED, Math.min(Network.MAX_MOVE_SPEED, move));
+    }
+
+    /**
+     * Returns the hitboxes of every living player except one.
+     */
+    private List<Circle> otherHitboxes(ServerPlayer except) {
+        List<Circle> hitboxes = new ArrayList<>();
+        for (ServerPlayer other : players.values()) {
+            if (other != except && other.alive) {
+                hitboxes.add(other.hitbox);
+            }
+        }
+        return hitboxes;
+    }
+
+    /**
+     * Fills in the part of a snapshot that tells a client the last input of
+     * theirs that was run and where it left them. Done under the world lock
+     * so the input and position always match.
+     *
+     * @param id connection ID of the client
+     * @param snapshot the snapshot being sent to them
+     */
+    public synchronized void fillInputAck(int id, WorldSnapshot snapshot) {
+        ServerPlayer p = players.get(id);
+        if (p == null) {
+            return;
+        }
+        snapshot.inputAck = Math.max(0, p.lastInputSequence);
+        snapshot.x = p.hitbox.x;
+        snapshot.y = p.hitbox.y;
+        snapshot.alive = p.alive;
+        snapshot.kills = p.kills;
+    }
+
+    /**
+     * Registers the username a player joined with. Names are trimmed and cut
+     * down to a sensible length.
+     *
+     * @param id connection ID of the player
+     * @param username the name they asked for
+     * @return the name actually stored, or null if the player is unknown
+     */
+    public synchronized String setUsername(int id, String username) {
+        ServerPlayer p = players.get(id);
+        if (p == null) {
+            return null;
+        }
+        if (username != null && !username.trim().isEmpty()) {
+            username = username.trim();
+            p.username = username.length() > MAX_USERNAME_LENGTH ? username.substring(0, MAX_USERNAME_LENGTH) : username;
+        }
+        return p.username;
+    }
+
+    /**
+     * Returns the username of every player.
+     *
+     * @return usernames by player ID
+     */
+    public synchronized Map<Integer, String> getUsernames() {
+        Map<Integer, String> names = new LinkedHashMap<>();
+        for (ServerPlayer p : players.values()) {
+            names.put(p.id, p.username);
+        }
+        return names;
+    }
+
+    /**
+     * Spawns the bullets of a shot message. Shots from dead or unknown
+     * players, with an unknown gun, that were already seen or whose numbers
+     * would run past Integer.MAX_VALUE are dropped.
+     * Speed, damage and spread come from the gun, not the client, and a shot
+     * fired too far from the shooter is moved to where the server has them.
+     * The bullets are checked against where targets were the given number of
+     * ticks ago, which is what the shooter saw when firing.
+     *
+     * @param id connection ID of the shooter
+     * @param shot the shot sent by the client, its origin may be corrected
+     * @param rewindTicks how far behind the server the shooter's view is
+     * @return true if the shot was accepted and should be relayed
+     */
+    public synchronized boolean spawnShot(int id, ShotFired shot, int rewindTicks) {
+        ServerPlayer shooter = players.get(id);
+        if (shooter == null || !shooter.alive || shot.sequence <= shooter.lastShotSequence
+                || shot.sequence > Integer.MAX_VALUE - MAX_SHOTS_PER_MESSAGE
+                || shot.weapon >= GunFactory.GunType.values().length || shot.count < 1) {
+            return false;
+        }
+        shot.count = Math.min(shot.count, MAX_SHOTS_PER_MESSAGE);
+        shooter.lastShotSequence = shot.sequence + shot.count - 1;
+        float dx = shot.x - shooter.hitbox.x;
+        float dy = shot.y - shooter.hitbox.y;
+        if (dx * dx + dy * dy > MAX_SHOT_OFFSET * MAX_SHOT_OFFSET) {
+            shot.x = NetworkSerializers.quantizePosition(shooter.hitbox.x, WORLD_WIDTH);
+            shot.y = NetworkSerializers.quantizePosition(shooter.hitbox.y, WORLD_HEIGHT);
+        }
+        Gun gun = GunFactory.getStats(GunFactory.GunType.values()[shot.weapon]);
+        int rewind = Math.max(0, Math.min(MAX_REWIND_TICKS, rewindTicks));
+        for (int i = 0; i < shot.count; i++) {
+            Bullet bullet = ShotPattern.createBullet(id, gun, shot.sequence + i, shot.x, shot.y, shot.aim);
+            bullets.add(new ServerBullet(bullet, rewind));
+        }
+        return true;
+    }
+
+    /**
+     * Moves every bullet forward one tick and resolves hits. Each bullet is
+     * checked against its targets as they were when its shooter saw them,
+     * then every player's position is added to their history. Once a round
+     * has been won for ROUND_RESET_DELAY, everyone's kills go back to zero.
+     *
+     * @param tick the tick being run
+     * @param dt tick length in seconds
+     * @return the hits that happened this tick, in order
+     */
+    public synchronized List<PlayerHit> step(int tick, float dt) {
+        List<PlayerHit> hits = new ArrayList<>();
+        Circle bc = new Circle();
+        Circle rewound = new Circle(0, 0, PLAYER_RADIUS);
+        float[] past = new float[2];
+
+        for (Iterator<ServerBullet> it = bullets.iterator(); it.hasNext();) {
+            ServerBullet sb = it.next();
+            Bullet b = sb.bullet;
+            b.update(dt);
+            if (b.isOutOfBounds(WORLD_WIDTH, WORLD_HEIGHT) || b.isExpired()) {
+                it.remove();
+                continue;
+            }
+            bc.set(b.getX(), b.getY(), b.getRadius());
+            if (hitsObstacle(bc)) {
+                it.remove();
+                continue;
+            }
+            for (ServerPlayer target : players.values()) {
+                if (target.id == b.getOwnerId() || !target.alive) {
+                    continue;
+                }
+                Circle hitbox = target.hitbox;
+                // a target with no living record that far back (just joined
+                // or just respawned) is checked where they are now, so they
+                // can't dodge every shot while their history fills up
+                if (sb.rewindTicks > 0 && target.history.find(tick - sb.rewindTicks, past)) {
+                    rewound.setPosition(past[0], past[1]);
+                    hitbox = rewound;
+                }
+                if (Intersector.overlaps(bc, hitbox)) {
+                    hits.add(applyHit(b.getOwnerId(), target, b.getDamage()));
+                    it.remove();
+                    break;
+                }
+            }
+        }
+
+        // a round was won, everyone starts the next one from zero
+        if (roundResetTime != 0 && TimeUtils.millis() >= roundResetTime) {
+            roundResetTime = 0;
+            for (ServerPlayer p : players.values()) {
+                p.kills = 0;
+            }
+        }
+
+        grid.clear();
+        for (ServerPlayer p : players.values()) {
+            grid.add(p.id, p.hitbox.x, p.hitbox.y);
+            p.history.record(tick, p.hitbox.x, p.hitbox.y, p.alive);
+        }
+        return hits;
+    }
+
+    /**
+     * Finds the players near a point, as of the last step.
+     *
+     * @param x x of the point
+     * @param y y of the point
+     * @param radius how far to look
+     * @return IDs of the players in range
+     */
+    public synchronized List<Integer> getPlayersNear(float x, float y, float radius) {
+        List<Integer> near = new ArrayList<>();
+        grid.query(x, y, radius, near);
+        return near;
+    }
+
+    /**
+     * Damages a target and builds the hit message describing it.
+     *
+     * @param sourceId ID of the shooter
+     * @param target the player that got hit
+     * @param damage damage of the bullet
+     * @return the hit to broadcast
+     */
+    private PlayerHit applyHit(int sourceId, ServerPlayer target, float damage) {
+        PlayerHit hit = new PlayerHit();
+        hit.sourceId = sourceId;
+        hit.targetId = target.id;
+        hit.damage = damage;
+
+        target.health -= damage;
+        if (target.health <= 0) {
+            target.health = 0;
+            target.alive = false;
+            target.respawnTime = TimeUtils.millis() + RESPAWN_DELAY;
+            hit.fatal = true;
+
+            ServerPlayer shooter = players.get(sourceId);
+            if (shooter != null) {
+                shooter.kills++;
+                hit.newKillCount = shooter.kills;
+                if (shooter.kills >= KILLS_TO_WIN && roundResetTime == 0) {
+                    roundResetTime = TimeUtils.millis() + ROUND_RESET_DELAY;
+                }
+            }
+        }
+        return hit;
+    }
+
+    /**
+     * Checks a circle against every obstacle.
+     */
+    private boolean hitsObstacle(Circle c) {
+        for (Rectangle r : obstacles) {
+            if (Intersector.overlaps(c, r)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the full state of every player as the server sees them.
+     *
+     * @return one state per player
+     */
+    public synchronized List<PlayerState> getPlayerStates() {
+        List<PlayerState> states = new ArrayList<>(players.size());
+        for (ServerPlayer p : players.values()) {
+            states.add(p.toState());
+        }
+        return states;
+    }
+
+    /**
+     * A bullet on the server, plus how far back its shooter's view was.
+     */
+    private static class ServerBullet {
+
+        final Bullet bullet;
+        final int rewindTicks;
+
+        ServerBullet(Bullet bullet, int rewindTicks) {
+            this.bullet = bullet;
+            this.rewindTicks = rewindTicks;
+        }
+    }
+
+    /**
+     * The server's record of one player.
+     */
+    public static class ServerPlayer {
+
+        public final int id;
+        public final Circle hitbox;
+        public float rotation = 0f;
+        public float health = MAX_HEALTH;
+        public boolean alive = true;
+        public int kills = 0;
+        public String username = "Player";
+        public long respawnTime = 0;
+        public int lastUpdateSequence = -1;
+        public int lastInputSequence = -1;
+        public int lastShotSequence = -1;
+        public float inputBudget = MAX_INPUT_BURST;
+        public long lastInputTime = TimeUtils.millis();
+        public final PositionHistory history = new PositionHistory(Network.TICK_RATE);
+
+        /**
+         * Creates a player at the given position with full health.
+         */
+        public ServerPlayer(int id, float x, float y) {
+            this.id = id;
+            this.hitbox = new Circle(x, y, PLAYER_RADIUS);
+        }
+
+        /**
+         * Copies this player's state into a network message.
+         */
+        public PlayerState toState() {
+            PlayerState state = new PlayerState();
+            state.id = id;
+            state.x = hitbox.x;
+            state.y = hitbox.y;
+            state.health = health;
+            state.alive = alive;
+            state.rotation = rotation;
+            state.kills = kills;
+            return state;
+        }
+    }
+}
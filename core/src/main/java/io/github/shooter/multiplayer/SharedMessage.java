@@ -0,0 +1,99 @@
+package io.github.shooter.multiplayer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryonet.KryoSerialization;
+
+/**
+ * A message that has already been serialized, for sending the same thing to
+ * many clients. Kryonet serializes a message again for every connection it
+ * goes to, so for a broadcast the message is encoded once here and each send
+ * only copies the bytes. The receiving end never sees this class, it gets the
+ * original message back. A loopback connection hands over the original
+ * without decoding anything.
+ */
+public class SharedMessage {
+
+    /**
+     * Each thread's own Kryo and buffer, so rooms ticking on different
+     * threads can encode at the same time
+     */
+    private static final ThreadLocal<Encoder> encoders = ThreadLocal.withInitial(Encoder::new);
+
+    /**
+     * The message with its class ID, as the receiver's Kryo expects it
+     */
+    private final byte[] bytes;
+    /**
+     * The original message
+     */
+    private final Object message;
+
+    private SharedMessage(byte[] bytes, Object message) {
+        this.bytes = bytes;
+        this.message = message;
+    }
+
+    /**
+     * Serializes a message once so it can be sent to any number of
+     * connections.
+     *
+     * @param message the message to share
+     * @return the encoded message, send it like any other message
+     */
+    public static SharedMessage encode(Object message) {
+        Encoder encoder = encoders.get();
+        encoder.output.clear();
+        encoder.kryo.writeClassAndObject(encoder.output, message);
+        return new SharedMessage(encoder.output.toBytes(), message);
+    }
+
+    /**
+     * Returns the class of the message this holds.
+     */
+    public Class<?> getMessageClass() {
+        return message.getClass();
+    }
+
+    /**
+     * Returns the original message, not to be changed since it is shared.
+     */
+    public Object getMessage() {
+        return message;
+    }
+
+    /**
+     * A Kryo set up exactly like the one each connection uses, so class IDs
+     * match, and the reused buffer messages are written into.
+     */
+    private static class Encoder {
+
+        final Kryo kryo;
+        final Output output = new Output(1024, -1);
+
+        Encoder() {
+            // KryoSerialization registers Kryonet's own messages first, same as on a connection
+            kryo = new KryoSerialization().getKryo();
+            Network.register(kryo);
+        }
+    }
+
+    /**
+     * Writes the already encoded bytes as they are. Reading gives back the
+     * original message instead of a SharedMessage.
+     */
+    public static class SharedMessageSerializer extends Serializer<Object> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Object message) {
+            output.writeBytes(((SharedMessage) message).bytes);
+        }
+
+        @Override
+        public Object read(Kryo kryo, Input input, Class<Object> type) {
+            return kryo.readClassAndObject(input);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.shooter.multiplayer;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.github.shooter.multiplayer.Network.PlayerState;
+import io.github.shooter.multiplayer.Network.WorldSnapshot;
+
+/**
+ * Rebuilds full world state on the client from the delta snapshots the server
+ * sends. Keeps the last few rebuilt snapshots around since the server may pick
+ * any one it knows we acknowledged as a baseline.
+ */
+public class SnapshotDecoder {
+
+    /**
+     * Rebuilt world state by tick
+     */
+    private final Map<Integer, Map<Integer, PlayerState>> history = new LinkedHashMap<Integer, Map<Integer, PlayerState>>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Map<Integer, PlayerState>> eldest) {
+            return size() > SnapshotEncoder.HISTORY_SIZE;
+        }
+    };
+    /**
+     * Newest tick decoded so far
+     */
+    private int latestTick = -1;
+
+    /**
+     * Applies a snapshot on top of its baseline.
+     *
+     * @param snapshot snapshot from the server
+     * @return full state of every player by ID, or null if the snapshot is
+     * older than what we have or its baseline is missing
+     */
+    public Map<Integer, PlayerState> decode(WorldSnapshot snapshot) {
+        Map<Integer, PlayerState> baseline;
+        if (snapshot.baselineTick < 0) {
+            baseline = new HashMap<>();
+        } else {
+            baseline = history.get(snapshot.baselineTick);
+            if (baseline == null) {
+                return null;
+            }
+        }
+
+        Map<Integer, PlayerState> view = new HashMap<>();
+        for (PlayerState state : baseline.values()) {
+            PlayerState copy = new PlayerState();
+            copy.set(state, PlayerState.ALL);
+            view.put(copy.id, copy);
+        }
+        if (snapshot.removed != null) {
+            for (int id : snapshot.removed) {
+                view.remove(id);
+            }
+        }
+        if (snapshot.players != null) {
+            for (PlayerState delta : snapshot.players) {
+                PlayerState state = view.get(delta.id);
+                if (state == null) {
+                    state = new PlayerState();
+                    view.put(delta.id, state);
+                }
+                state.set(delta, delta.changed);
+            }
+        }
+
+        history.put(snapshot.tick, view);
+        if (snapshot.tick <= latestTick) {
+            return null;
+        }
+        latestTick = snapshot.tick;
+        return view;
+    }
+
+    /**
+     * Forgets all stored snapshots, e.g. after reconnecting.
+     */
+    public void reset() {
+        history.clear();
+        latestTick = -1;
+    }
+}
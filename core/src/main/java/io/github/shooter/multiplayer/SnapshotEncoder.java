@@ -0,0 +1,246 @@
+package io.github.shooter.multiplayer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.github.shooter.multiplayer.Network.PlayerState;
+import io.github.shooter.multiplayer.Network.WorldSnapshot;
+
+/**
+ * Builds the snapshots sent to one client. Each snapshot only holds what
+ * changed since the last snapshot that client acknowledged, with a full
+ * keyframe every so often or whenever there is no usable baseline.
+ */
+public class SnapshotEncoder {
+
+    /**
+     * How many sent snapshots are kept around as possible baselines
+     */
+    public static final int HISTORY_SIZE = 64;
+    /**
+     * Ticks between forced keyframes
+     */
+    public static final int KEYFRAME_INTERVAL = Network.TICK_RATE * 2;
+
+    /**
+     * What the client will have after applying each sent snapshot, by tick
+     */
+    private final Map<Integer, Map<Integer, PlayerState>> history = new LinkedHashMap<Integer, Map<Integer, PlayerState>>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Map<Integer, PlayerState>> eldest) {
+            return size() > HISTORY_SIZE;
+        }
+    };
+    /**
+     * Bytes of player updates a snapshot may hold by default, about 15 KB/s
+     * at the normal tick rate
+     */
+    public static final int DEFAULT_BYTE_BUDGET = 512;
+    /**
+     * Smallest budget allowed, enough for one full player update
+     */
+    public static final int MIN_BYTE_BUDGET = 16;
+    /**
+     * Priority added while a player's health or alive state has changed, so
+     * hits and deaths go out ahead of plain movement
+     */
+    public static final float RELEVANCE_BONUS = 4f;
+
+    /**
+     * Latest tick the client said it received
+     */
+    private int ackedTick = -1;
+    /**
+     * Tick of the last keyframe sent
+     */
+    private int lastKeyframeTick = Integer.MIN_VALUE / 2;
+    /**
+     * Priority built up by each player not sent yet, by ID
+     */
+    private final Map<Integer, Float> priorities = new HashMap<>();
+    /**
+     * Bytes of player updates one snapshot may hold
+     */
+    private int byteBudget = DEFAULT_BYTE_BUDGET;
+
+    /**
+     * Records that the client received the snapshot for a tick. Old or unknown
+     * ticks are ignored.
+     *
+     * @param tick the acknowledged tick
+     */
+    public synchronized void ack(int tick) {
+        if (tick > ackedTick && history.containsKey(tick)) {
+            ackedTick = tick;
+        }
+    }
+
+    /**
+     * Builds the snapshot for this tick with every change in it.
+     *
+     * @param tick the current server tick
+     * @param states full state of every player this client should know about
+     * @return the snapshot to send
+     */
+    public synchronized WorldSnapshot encode(int tick, List<PlayerState> states) {
+        return encode(tick, states, null);
+    }
+
+    /**
+     * Builds the snapshot for this tick, picking which players to update by
+     * priority. Each tick a player's weight is added to their priority, plus
+     * a bonus if their health or alive state changed. Players whose priority
+     * has reached 1 are sent highest priority first until the byte budget is
+     * used up, and sending a player resets their priority. So players that
+     * matter less are updated less often, but every player gets its turn
+     * eventually. A player that isn't sent keeps whatever state the client
+     * already has, so no bytes are spent on it and it isn't treated as
+     * removed, and is listed as deferred so the client knows that state is
+     * out of date. Keyframes always hold everyone, since a player left out of
+     * one would disappear on the client.
+     *
+     * @param tick the current server tick
+     * @param states full state of every player this client should know about
+     * @param weights how much each player matters to this client per tick,
+     * by ID, 1 being every tick; players missing count as 1, and null sends
+     * every change regardless of the budget
+     * @return the snapshot to send
+     */
+    public synchronized WorldSnapshot encode(int tick, List<PlayerState> states, Map<Integer, Float> weights) {
+        Map<Integer, PlayerState> baseline = null;
+        if (tick - lastKeyframeTick < KEYFRAME_INTERVAL) {
+            baseline = history.get(ackedTick);
+        }
+
+        WorldSnapshot snapshot = new WorldSnapshot();
+        snapshot.tick = tick;
+        snapshot.baselineTick = baseline != null ? ackedTick : -1;
+        if (baseline == null) {
+            lastKeyframeTick = tick;
+        }
+
+        Map<Integer, PlayerState> view = new HashMap<>();
+        List<PlayerState> changed = new ArrayList<>();
+        List<PlayerState> candidates = new ArrayList<>();
+        List<Integer> deferred = new ArrayList<>();
+        Map<Integer, PlayerState> current = new HashMap<>();
+        for (PlayerState state : states) {
+            current.put(state.id, state);
+            PlayerState base = baseline != null ? baseline.get(state.id) : null;
+            int mask = diff(base, state);
+            if (mask == 0) {
+                view.put(state.id, state);
+                priorities.remove(state.id);
+                continue;
+            }
+            PlayerState delta = new PlayerState();
+            delta.set(state, mask);
+            delta.changed = mask;
+            if (weights == null || baseline == null) {
+                view.put(state.id, state);
+                changed.add(delta);
+                priorities.remove(state.id);
+                continue;
+            }
+            Float weight = weights.get(state.id);
+            float priority = priorities.getOrDefault(state.id, 0f) + (weight != null ? weight : 1f);
+            if ((mask & (PlayerState.HEALTH | PlayerState.ALIVE)) != 0) {
+                priority += RELEVANCE_BONUS;
+            }
+            priorities.put(state.id, priority);
+            if (priority >= 1f) {
+                candidates.add(delta);
+            } else if (base != null) {
+                view.put(state.id, base);
+                deferred.add(state.id);
+            }
+        }
+        priorities.keySet().retainAll(current.keySet());
+
+        candidates.sort((a, b) -> Float.compare(priorities.get(b.id), priorities.get(a.id)));
+        int used = 0;
+        for (PlayerState delta : candidates) {
+            int size = NetworkSerializers.stateSize(delta);
+            if (used + size <= byteBudget) {
+                used += size;
+                changed.add(delta);
+                view.put(delta.id, current.get(delta.id));
+                priorities.remove(delta.id);
+            } else if (baseline.containsKey(delta.id)) {
+                view.put(delta.id, baseline.get(delta.id));
+                deferred.add(delta.id);
+            }
+        }
+        snapshot.players = changed.toArray(new PlayerState[0]);
+        snapshot.deferred = new int[deferred.size()];
+        for (int i = 0; i < deferred.size(); i++) {
+            snapshot.deferred[i] = deferred.get(i);
+        }
+
+        if (baseline != null) {
+            List<Integer> removed = new ArrayList<>();
+            for (Integer id : baseline.keySet()) {
+                if (!view.containsKey(id)) {
+                    removed.add(id);
+                }
+            }
+            snapshot.removed = new int[removed.size()];
+            for (int i = 0; i < removed.size(); i++) {
+                snapshot.removed[i] = removed.get(i);
+            }
+        }
+
+        history.put(tick, view);
+        return snapshot;
+    }
+
+    /**
+     * Sets how many bytes of player updates one snapshot may hold. Keyframes
+     * and snapshots built without weights aren't limited.
+     *
+     * @param bytes the budget, at least one player update worth
+     */
+    public synchronized void setByteBudget(int bytes) {
+        byteBudget = Math.max(MIN_BYTE_BUDGET, bytes);
+    }
+
+    /**
+     * Returns how many bytes of player updates one snapshot may hold.
+     */
+    public synchronized int getByteBudget() {
+        return byteBudget;
+    }
+
+    /**
+     * Works out which fields differ between a baseline and the current state.
+     *
+     * @param base the state the client has, or null if it has none
+     * @param state the current state
+     * @return bitmask of PlayerState fields to send
+     */
+    private static int diff(PlayerState base, PlayerState state) {
+        if (base == null) {
+            return PlayerState.ALL;
+        }
+        int mask = 0;
+        if (base.x != state.x || base.y != state.y) {
+            mask |= PlayerState.POSITION;
+        }
+        if (base.rotation != state.rotation) {
+            mask |= PlayerState.ROTATION;
+        }
+        if (base.health != state.health) {
+            mask |= PlayerState.HEALTH;
+        }
+        if (base.alive != state.alive) {
+            mask |= PlayerState.ALIVE;
+        }
+        if (base.kills != state.kills) {
+            mask |= PlayerState.KILLS;
+        }
+        return mask;
+    }
+}
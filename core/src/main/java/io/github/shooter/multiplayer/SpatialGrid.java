@@ -0,0 +1,111 @@
+package io.github.shooter.multiplayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A uniform grid over the map that buckets player positions, so the server
+ * can find who is near a point without checking every player. Cells should
+ * be about the size of the radius usually queried. Not thread safe, the
+ * owner has to lock around it.
+ */
+public class SpatialGrid {
+
+    /**
+     * Side length of one cell
+     */
+    private final float cellSize;
+    /**
+     * Number of columns and rows
+     */
+    private final int columns, rows;
+    /**
+     * The entries in each cell, indexed by row * columns + column
+     */
+    private final List<List<Entry>> cells;
+
+    /**
+     * Creates an empty grid covering the given area.
+     *
+     * @param width width of the area
+     * @param height height of the area
+     * @param cellSize side length of one cell
+     */
+    public SpatialGrid(float width, float height, float cellSize) {
+        this.cellSize = cellSize;
+        this.columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        this.rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        this.cells = new ArrayList<>(columns * rows);
+        for (int i = 0; i < columns * rows; i++) {
+            cells.add(new ArrayList<Entry>());
+        }
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void clear() {
+        for (List<Entry> cell : cells) {
+            cell.clear();
+        }
+    }
+
+    /**
+     * Adds an ID at a position. Positions outside the area go in the nearest
+     * edge cell.
+     *
+     * @param id ID to store
+     * @param x x position
+     * @param y y position
+     */
+    public void add(int id, float x, float y) {
+        cells.get(row(y) * columns + column(x)).add(new Entry(id, x, y));
+    }
+
+    /**
+     * Finds every ID within a radius of a point.
+     *
+     * @param x x of the center
+     * @param y y of the center
+     * @param radius how far to look
+     * @param out list the found IDs are added to
+     */
+    public void query(float x, float y, float radius, List<Integer> out) {
+        int minColumn = column(x - radius), maxColumn = column(x + radius);
+        int minRow = row(y - radius), maxRow = row(y + radius);
+        float radius2 = radius * radius;
+        for (int r = minRow; r <= maxRow; r++) {
+            for (int c = minColumn; c <= maxColumn; c++) {
+                for (Entry entry : cells.get(r * columns + c)) {
+                    float dx = entry.x - x, dy = entry.y - y;
+                    if (dx * dx + dy * dy <= radius2) {
+                        out.add(entry.id);
+                    }
+                }
+            }
+        }
+    }
+
+    private int column(float x) {
+        return Math.max(0, Math.min(columns - 1, (int) (x / cellSize)));
+    }
+
+    private int row(float y) {
+        return Math.max(0, Math.min(rows - 1, (int) (y / cellSize)));
+    }
+
+    /**
+     * One ID stored at a position.
+     */
+    private static class Entry {
+
+        final int id;
+        final float x, y;
+
+        Entry(int id, float x, float y) {
+            this.id = id;
+            this.x = x;
+            this.y = y;
+        }
+    }
+}
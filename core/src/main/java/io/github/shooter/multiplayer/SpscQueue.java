@@ -0,0 +1,68 @@
+package io.github.shooter.multiplayer;
+
+/**
+ * An unbounded queue for handing objects from exactly one producer thread to
+ * exactly one consumer thread without locks. The producer only touches the
+ * tail and the consumer only touches the head, and the volatile link between
+ * nodes is what makes an added value visible to the consumer.
+ *
+ * @param <T> type of the values queued
+ */
+public class SpscQueue<T> {
+
+    /**
+     * Last node added, only used by the producer
+     */
+    private Node<T> tail;
+    /**
+     * Node before the next value to take, only used by the consumer
+     */
+    private Node<T> head;
+
+    /**
+     * Creates an empty queue.
+     */
+    public SpscQueue() {
+        head = tail = new Node<>(null);
+    }
+
+    /**
+     * Adds a value. Only call from the producer thread.
+     *
+     * @param value value to add, not null
+     */
+    public void offer(T value) {
+        Node<T> node = new Node<>(value);
+        tail.next = node;
+        tail = node;
+    }
+
+    /**
+     * Takes the oldest value. Only call from the consumer thread.
+     *
+     * @return the value, or null if the queue is empty
+     */
+    public T poll() {
+        Node<T> next = head.next;
+        if (next == null) {
+            return null;
+        }
+        T value = next.value;
+        next.value = null;
+        head = next;
+        return value;
+    }
+
+    /**
+     * One link in the queue.
+     */
+    private static class Node<T> {
+
+        T value;
+        volatile Node<T> next;
+
+        Node(T value) {
+            this.value = value;
+        }
+    }
+}
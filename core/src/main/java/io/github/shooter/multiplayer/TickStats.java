@@ -0,0 +1,146 @@
+package io.github.shooter.multiplayer;
+
+import java.util.Arrays;
+
+/**
+ * How long room ticks take, summed over every room of a server. Durations go
+ * into 0.1 ms buckets so percentiles can be read without keeping every
+ * sample. Read it with drain, which hands back what was recorded since the
+ * last drain.
+ */
+public class TickStats {
+
+    /**
+     * Width of one bucket (ns)
+     */
+    private static final long BUCKET_NANOS = 100000L;
+    /**
+     * Number of buckets, the last one holds everything over 100 ms
+     */
+    private static final int BUCKETS = 1000;
+
+    /**
+     * Time one tick is meant to take at most (ns)
+     */
+    private final long budget;
+    /**
+     * Count of ticks in each bucket
+     */
+    private final long[] buckets = new long[BUCKETS];
+    /**
+     * Ticks recorded
+     */
+    private long count;
+    /**
+     * Total time of the ticks recorded (ns)
+     */
+    private long total;
+    /**
+     * Longest tick recorded (ns)
+     */
+    private long max;
+    /**
+     * Ticks that took longer than the budget
+     */
+    private long late;
+
+    /**
+     * Creates empty stats.
+     *
+     * @param tickRate ticks per second, a tick taking longer than one over
+     * this counts as late
+     */
+    public TickStats(int tickRate) {
+        this.budget = 1000000000L / tickRate;
+    }
+
+    /**
+     * Records one tick.
+     *
+     * @param nanos how long it took (ns)
+     */
+    public synchronized void record(long nanos) {
+        buckets[(int) Math.min(BUCKETS - 1, nanos / BUCKET_NANOS)]++;
+        count++;
+        total += nanos;
+        max = Math.max(max, nanos);
+        if (nanos > budget) {
+            late++;
+        }
+    }
+
+    /**
+     * Moves everything recorded so far into a new TickStats and starts these
+     * over, so each read covers the time since the last one.
+     *
+     * @return the ticks recorded since the last drain
+     */
+    public synchronized TickStats drain() {
+        TickStats copy = new TickStats(1);
+        copy.copyFrom(this);
+        Arrays.fill(buckets, 0);
+        count = total = max = late = 0;
+        return copy;
+    }
+
+    private void copyFrom(TickStats other) {
+        System.arraycopy(other.buckets, 0, buckets, 0, BUCKETS);
+        count = other.count;
+        total = other.total;
+        max = other.max;
+        late = other.late;
+    }
+
+    /**
+     * Returns the number of ticks recorded.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of ticks that took longer than the budget.
+     */
+    public synchronized long getLateCount() {
+        return late;
+    }
+
+    /**
+     * Returns the average tick time (ms), 0 if nothing was recorded.
+     */
+    public synchronized double getAverageMillis() {
+        return count == 0 ? 0 : total / 1e6 / count;
+    }
+
+    /**
+     * Returns the longest tick time (ms).
+     */
+    public synchronized double getMaxMillis() {
+        return max / 1e6;
+    }
+
+    /**
+     * Returns the tick time the given share of ticks stayed under, rounded
+     * up to the bucket width (ms).
+     *
+     * @param percentile between 0 and 100
+     * @return the time, 0 if nothing was recorded
+     */
+    public synchronized double getPercentileMillis(double percentile) {
+        long wanted = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= wanted && seen > 0) {
+                return Math.min(max, (i + 1) * BUCKET_NANOS) / 1e6;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d ticks, avg %.2f ms, p99 %.2f ms, max %.2f ms, %d late", count, getAverageMillis(),
+                getPercentileMillis(99), getMaxMillis(), late);
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.shooter.multiplayer;
+
+import com.badlogic.gdx.utils.TimeUtils;
+
+/**
+ * Limits how fast something can happen while still allowing short bursts.
+ * The bucket refills at a steady rate up to its capacity, and each event
+ * takes tokens out of it. An event that finds too few tokens is refused.
+ * Not thread safe, each bucket belongs to one thread.
+ */
+public class TokenBucket {
+
+    /**
+     * Most tokens the bucket holds, the longest burst allowed
+     */
+    private final float capacity;
+    /**
+     * Tokens added per second
+     */
+    private final float refillRate;
+    /**
+     * Tokens in the bucket as of the last refill
+     */
+    private float tokens;
+    /**
+     * When the bucket was last refilled (ns)
+     */
+    private long lastRefill = TimeUtils.nanoTime();
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param capacity most tokens the bucket holds
+     * @param refillRate tokens added per second
+     */
+    public TokenBucket(float capacity, float refillRate) {
+        this.capacity = capacity;
+        this.refillRate = refillRate;
+        this.tokens = capacity;
+    }
+
+    /**
+     * Takes tokens out if there are enough.
+     *
+     * @param amount tokens the event costs
+     * @return true if the event is allowed
+     */
+    public boolean tryTake(float amount) {
+        long now = TimeUtils.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * refillRate / 1e9f);
+        lastRefill = now;
+        if (tokens < amount) {
+            return false;
+        }
+        tokens -= amount;
+        return true;
+    }
+}
@@ -31,9 +31,14 @@ import io.github.shooter.game.Bullet;
 import io.github.shooter.game.GameMap;
 import io.github.shooter.game.Player;
 import io.github.shooter.game.weapons.Gun;
+import io.github.shooter.game.weapons.ShotPattern;
 import io.github.shooter.multiplayer.ClientListener;
 import io.github.shooter.multiplayer.GameClient;
 import io.github.shooter.multiplayer.GameClient.PlayerData;
+import io.github.shooter.multiplayer.GameServer;
+import io.github.shooter.multiplayer.Network;
+import io.github.shooter.multiplayer.NetworkSerializers;
+import io.github.shooter.multiplayer.ServerWorld;
 
 /**
  * In game screen that handles input, logic updates and rendering.
@@ -92,7 +97,6 @@ public class GameScreen implements Screen {
      * List of bullets currently in the game
      */
     private final ArrayList<Bullet> bullets = new ArrayList<>();
-    private final Object bulletsLock = new Object();
 
     /**
      * The velocity vector for player movement
@@ -106,6 +110,19 @@ public class GameScreen implements Screen {
      * The slide factor for player movement
      */
     private final float slide = 20f;
+    /**
+     * Frame time not yet turned into movement input steps (seconds)
+     */
+    private float inputAccumulator = 0;
+    /**
+     * Most frame time turned into input steps at once, so a long hitch
+     * doesn't make the player jump
+     */
+    private static final float MAX_INPUT_ACCUMULATOR = 0.25f;
+    /**
+     * Number of the next shot fired, picks its spread from ShotPattern
+     */
+    private int shotSequence = 0;
 
     /**
      * The position of the mouse in world coordinates
@@ -120,14 +137,43 @@ public class GameScreen implements Screen {
      * Whether this game is in multiplayer mode
      */
     private final boolean multiplayer;
+    /**
+     * Whether the victory screen has been shown for the round that was just
+     * won. The server only resets the kills a while after the winning kill,
+     * so this stops it showing again until then
+     */
+    private boolean roundOver;
     /**
      * The address of the server to connect to
      */
     private final String serverAddress;
     /**
-     * The game client used for multiplayer connections
+     * Server hosted in this game, joined in memory instead of over the
+     * network, or null
+     */
+    private final GameServer localServer;
+    /**
+     * The game client used for multiplayer connections, null until connected
      */
     private GameClient client;
+    /**
+     * Client being connected on a background thread, null when not
+     * connecting
+     */
+    private GameClient connecting;
+    /**
+     * When the current connection attempt started (ms)
+     */
+    private long connectStart;
+    /**
+     * Why the last connection attempt failed, null if it didn't
+     */
+    private String connectError;
+    /**
+     * Longest a connection attempt can take before it is given up on (ms),
+     * covering the host lookup and a second try without UDP
+     */
+    private static final long MAX_CONNECT_TIME = 15000;
 
     /**
      * Input adapter for handling touch events
@@ -147,9 +193,23 @@ public class GameScreen implements Screen {
      * @param serverAddress address of server or null for localhost
      */
     public GameScreen(Main game, boolean multiplayer, String serverAddress) {
+        this(game, multiplayer, serverAddress, null);
+    }
+
+    /**
+     * Creates a new game screen.
+     *
+     * @param game main game instance
+     * @param multiplayer whether to connect to a server
+     * @param serverAddress address of server or null for localhost
+     * @param localServer server hosted in this game to join in memory, or
+     * null to connect to serverAddress
+     */
+    public GameScreen(Main game, boolean multiplayer, String serverAddress, GameServer localServer) {
         this.game = game;
         this.multiplayer = multiplayer;
         this.serverAddress = (serverAddress == null || serverAddress.isEmpty()) ? "localhost" : serverAddress;
+        this.localServer = localServer;
 
         camera = new OrthographicCamera();
         camera.zoom = 0.30f;
@@ -190,46 +250,142 @@ public class GameScreen implements Screen {
 
     @Override
     /**
-     * Initializes input processing and connects to the game server if in
-     * multiplayer mode.
+     * Initializes input processing and starts connecting to the game server
+     * if in multiplayer mode.
      */
     public void show() {
         Gdx.input.setInputProcessor(input);
-        if (!multiplayer) {
+        if (!multiplayer || connecting != null) {
+            return;
+        }
+        if (client == null || !client.isConnected()) {
+            if (client != null) {
+                client.close();
+                client = null;
+            }
+            startConnect();
+        }
+    }
+
+    /**
+     * Connects to the server on a background thread so the window keeps
+     * drawing. The result is handed back to the render thread, where the
+     * client is only used if the attempt wasn't cancelled in the meantime.
+     * The host joins their own server in memory, which needs no waiting.
+     */
+    private void startConnect() {
+        if (localServer != null) {
+            connecting = new GameClient(localServer);
+            connected(connecting);
             return;
         }
-        if (client == null || !client.getClient().isConnected()) {
+        final GameClient pending = new GameClient(true);
+        connecting = pending;
+        connectStart = TimeUtils.millis();
+        connectError = null;
+        Thread thread = new Thread(() -> {
             try {
-                if (client != null) {
-                    client.close();
-                }
-                
-                client = new GameClient(serverAddress, true);
-                ClientListener l = new ClientListener(client);
-                l.setBulletListener((id, x, y, dx, dy, damage) -> {
-                    Bullet bullet = new Bullet(x, y, dx, dy, id);
-                    bullet.setDamage(damage);
-                    bullet.setRadius(Math.min(5f + (damage / 10f), 10f));
-                    synchronized (bulletsLock) {
-                        bullets.add(bullet);
-                    }
-                });
-                l.setPlayerHitListener((sourceId, dmg) -> {
-                    float oldHealth = player.getHealth();
-                    player.takeDamage(dmg);
-                    if (oldHealth > 0 && player.getHealth() <= 0) {
-                        PlayerData killerData = client.getOtherPlayers().get(sourceId);
-                        if (killerData != null && killerData.enemyPlayer != null) {
-                            killerData.enemyPlayer.setKills(killerData.enemyPlayer.getKills() + 1);
-                            updateLeaderboard();
-                        }
-                    }
-                });
-                client.getClient().addListener(l);
+                pending.connect(serverAddress);
+                Gdx.app.postRunnable(() -> connected(pending));
             } catch (IOException e) {
-                System.err.println("Connect failed: " + e.getMessage());
+                Gdx.app.postRunnable(() -> connectFailed(pending, e.getMessage()));
             }
+        }, "Connect to " + serverAddress);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts using a client that finished connecting.
+     *
+     * @param pending the client that connected
+     */
+    private void connected(GameClient pending) {
+        if (pending != connecting) {
+            // cancelled after the connect went through
+            pending.close();
+            return;
+        }
+        connecting = null;
+        client = pending;
+        ClientListener l = client.getListener();
+        l.setBulletListener(bullet -> bullets.add(bullet));
+        l.setPlayerHitListener((sourceId, dmg, fatal) -> {
+            player.takeDamage(dmg);
+            if (fatal && player.isAlive()) {
+                // server says we're dead even if our copy of health disagrees
+                player.takeDamage(player.getHealth());
+            }
+            if (fatal) {
+                updateLeaderboard();
+            }
+        });
+        l.setKillListener((targetId, kills) -> player.setKills(kills));
+        client.sendJoinRequest(player.getUsername());
+    }
+
+    /**
+     * Shows why a connection attempt failed, unless it was cancelled.
+     *
+     * @param pending the client that failed to connect
+     * @param message what went wrong
+     */
+    private void connectFailed(GameClient pending, String message) {
+        if (pending == connecting) {
+            connecting = null;
+            connectError = message != null ? message : "Connection failed";
+        }
+    }
+
+    /**
+     * Gives up on the connection attempt in progress, if any. Doesn't wait
+     * for the background thread, it finishes on its own.
+     *
+     * @param reason shown on screen, or null to show nothing
+     */
+    private void cancelConnect(String reason) {
+        if (connecting != null) {
+            connecting.cancel();
+            connecting = null;
+            connectError = reason;
+        }
+    }
+
+    /**
+     * Draws the connecting screen and handles its keys: Escape cancels and
+     * goes back to the menu, Enter tries again after a failure.
+     */
+    private void renderConnecting() {
+        if (connecting != null && TimeUtils.timeSinceMillis(connectStart) > MAX_CONNECT_TIME) {
+            cancelConnect("Timed out connecting to " + serverAddress);
+        }
+        if (Gdx.input.isKeyJustPressed(Keys.ESCAPE)) {
+            cancelConnect(null);
+            game.setScreen(new MenuScreen(game));
+            return;
         }
+        if (connecting == null && Gdx.input.isKeyJustPressed(Keys.ENTER)) {
+            startConnect();
+        }
+
+        Gdx.gl.glClearColor(0, 0, 0.2f, 1);
+        Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
+        uiCamera.update();
+        batch.setProjectionMatrix(uiCamera.combined);
+        batch.begin();
+        game.font.setColor(1, 1, 1, 1);
+        game.font.getData().setScale(2.5f);
+        if (connecting != null) {
+            long dots = TimeUtils.timeSinceMillis(connectStart) / 500 % 4;
+            game.font.draw(batch, "Connecting to " + serverAddress + "...".substring(0, (int) dots),
+                    50, WORLD_HEIGHT / 2 + 40);
+            game.font.draw(batch, "Esc to cancel", 50, WORLD_HEIGHT / 2 - 20);
+        } else {
+            game.font.draw(batch, "Could not connect: " + connectError, 50, WORLD_HEIGHT / 2 + 40);
+            game.font.draw(batch, "Enter to try again, Esc to go back", 50, WORLD_HEIGHT / 2 - 20);
+        }
+        game.font.getData().setScale(1.0f);
+        batch.end();
     }
 
     @Override
@@ -239,47 +395,61 @@ public class GameScreen implements Screen {
      * @param dt delta-time in seconds
      */
     public void render(float dt) {
-        if (multiplayer && client != null) {
+        if (multiplayer && client == null) {
+            renderConnecting();
+            return;
+        }
+        if (multiplayer) {
+            client.processEvents();
             client.initializeEnemyTextures();
+            client.interpolateOtherPlayers();
         }
 
         updateBullets(dt);
         if (multiplayer) {
             checkBulletCollisions();
-            if (player.getKills() >= 10) {
-                game.setScreen(new VictoryScreen(game, player.getUsername(), true, this));
-                return;
-            }
-            synchronized (client.getOtherPlayers()) {
-                for (PlayerData otherPlayer : client.getOtherPlayers().values()) {
-                    if (otherPlayer.enemyPlayer != null && otherPlayer.enemyPlayer.getKills() >= 10) {
-                        game.setScreen(new VictoryScreen(game, otherPlayer.enemyPlayer.getUsername(), false, this));
-                        return;
-                    }
+            boolean won = player.getKills() >= ServerWorld.KILLS_TO_WIN;
+            String winner = won ? player.getUsername() : null;
+            for (PlayerData otherPlayer : client.getOtherPlayers().values()) {
+                if (winner == null && otherPlayer.enemyPlayer != null
+                        && otherPlayer.enemyPlayer.getKills() >= ServerWorld.KILLS_TO_WIN) {
+                    winner = otherPlayer.enemyPlayer.getUsername();
                 }
             }
+            if (winner == null) {
+                roundOver = false;
+            } else if (!roundOver) {
+                roundOver = true;
+                game.setScreen(new VictoryScreen(game, winner, won, this));
+                return;
+            }
             
             if (TimeUtils.millis() % 500 < 16) {
                 updateLeaderboard();
             }
         }
-        if (!player.isAlive() && player.shouldRespawn()) {
+        // in multiplayer the server picks the spawn point, see GameClient.reconcile
+        if (multiplayer && client != null) {
+            client.reconcile(player, map.getObstacles(), WORLD_WIDTH, WORLD_HEIGHT);
+        } else if (!player.isAlive() && player.shouldRespawn()) {
+            player.respawn(WORLD_WIDTH, WORLD_HEIGHT, map.getObstacles());
+        }
+
+        if (player.isAlive()) {
             if (multiplayer && client != null) {
-                Map<Integer, Circle> otherPlayersHitboxes = new HashMap<>();
-                for (Map.Entry<Integer, PlayerData> entry : client.getOtherPlayers().entrySet()) {
-                    if (entry.getValue().alive) {
-                        otherPlayersHitboxes.put(entry.getKey(), entry.getValue().hitbox);
-                    }
+                // fixed steps so the server can replay exactly the same movement
+                inputAccumulator = Math.min(inputAccumulator + dt, MAX_INPUT_ACCUMULATOR);
+                while (inputAccumulator >= Network.INPUT_STEP) {
+                    inputAccumulator -= Network.INPUT_STEP;
+                    handleInput();
+                    client.recordInput(vel);
+                    player.setVelocity(vel);
+                    player.update(Network.INPUT_STEP, WORLD_WIDTH, WORLD_HEIGHT, map.getObstacles());
                 }
-                player.respawn(WORLD_WIDTH, WORLD_HEIGHT, otherPlayersHitboxes, map.getObstacles());
             } else {
-                player.respawn(WORLD_WIDTH, WORLD_HEIGHT, map.getObstacles());
+                handleInput();
+                player.update(dt, WORLD_WIDTH, WORLD_HEIGHT, map.getObstacles());
             }
-        }
-
-        if (player.isAlive()) {
-            handleInput();
-            player.update(dt, WORLD_WIDTH, WORLD_HEIGHT, map.getObstacles());
 
             mousePosition.set(Gdx.input.getX(), Gdx.input.getY(), 0);
             camera.unproject(mousePosition);
@@ -292,37 +462,23 @@ public class GameScreen implements Screen {
                 if (!player.getCurrentGun().isReloading()) {
                     player.setSpeed(100f);
                 }
-                Vector2 bulletDirection = new Vector2(aimDirection);
                 if (player.fireAt(aimDirection.x, aimDirection.y)) {
                     Gun currentGun = player.getCurrentGun();
-                    float damage = currentGun.getDamage();
-                    float speed = currentGun.getBulletSpeed();
-
-                    // spread
-                    float spread = currentGun.getSpread();
-                    if (spread > 0) {
-                        float angle = MathUtils.atan2(bulletDirection.y, bulletDirection.x);
-                        float spreadRadians = MathUtils.degreesToRadians * spread;
-                        float randomSpread = MathUtils.random(-spreadRadians / 2, spreadRadians / 2);
-                        angle += randomSpread;
-                        bulletDirection.x = MathUtils.cos(angle);
-                        bulletDirection.y = MathUtils.sin(angle);
-                    }
-
-                    int owner = (multiplayer && client != null) ? client.getClientId() : 0;
-                    Bullet bullet = new Bullet(player.getX(), player.getY(),
-                            bulletDirection.x * speed,
-                            bulletDirection.y * speed, owner);
-                    bullet.setDamage(damage);
-                    bullet.setRadius(Math.min(5f + (damage / 10f), 10f));
-                    synchronized (bulletsLock) {
-                        bullets.add(bullet);
+                    float x = player.getX();
+                    float y = player.getY();
+                    float aim = MathUtils.atan2(aimDirection.y, aimDirection.x) * MathUtils.radiansToDegrees;
+                    int owner = 0;
+                    if (multiplayer && client != null) {
+                        // round to what gets sent so everyone rebuilds the same bullet
+                        owner = client.getClientId();
+                        x = NetworkSerializers.quantizePosition(x, ServerWorld.WORLD_WIDTH);
+                        y = NetworkSerializers.quantizePosition(y, ServerWorld.WORLD_HEIGHT);
+                        aim = NetworkSerializers.quantizeAngle(aim);
                     }
+                    int shot = shotSequence++;
+                    bullets.add(ShotPattern.createBullet(owner, currentGun, shot, x, y, aim));
                     if (multiplayer && client != null) {
-                        client.sendBulletShot(player.getX(), player.getY(),
-                                bulletDirection.x * speed,
-                                bulletDirection.y * speed,
-                                damage);
+                        client.sendShot(currentGun.getType(), shot, x, y, aim);
                     }
                 }
             }
@@ -345,17 +501,15 @@ public class GameScreen implements Screen {
         shapeRenderer.setProjectionMatrix(camera.combined);
         shapeRenderer.begin(ShapeType.Filled);
 
-        synchronized (bulletsLock) {
-            for (Bullet b : bullets) {
-                shapeRenderer.setColor(1f, 0.3f, 0f, 1f); // orange
-                shapeRenderer.circle(b.getX(), b.getY(), b.getRadius());
+        for (Bullet b : bullets) {
+            shapeRenderer.setColor(1f, 0.3f, 0f, 1f); // orange
+            shapeRenderer.circle(b.getX(), b.getY(), b.getRadius());
 
-                shapeRenderer.setColor(1f, 0.5f, 0f, 0.6f);
-                shapeRenderer.circle(b.getX() - 0.01f * b.getVelX(), b.getY() - 0.01f * b.getVelY(), b.getRadius() * 0.8f);
+            shapeRenderer.setColor(1f, 0.5f, 0f, 0.6f);
+            shapeRenderer.circle(b.getX() - 0.01f * b.getVelX(), b.getY() - 0.01f * b.getVelY(), b.getRadius() * 0.8f);
 
-                shapeRenderer.setColor(1f, 0.7f, 0f, 0.3f);
-                shapeRenderer.circle(b.getX() - 0.02f * b.getVelX(), b.getY() - 0.02f * b.getVelY(), b.getRadius() * 0.6f);
-            }
+            shapeRenderer.setColor(1f, 0.7f, 0f, 0.3f);
+            shapeRenderer.circle(b.getX() - 0.02f * b.getVelX(), b.getY() - 0.02f * b.getVelY(), b.getRadius() * 0.6f);
         }
         if (player.isAlive()) {
             Gun currentGun = player.getCurrentGun();
@@ -435,10 +589,12 @@ public class GameScreen implements Screen {
 
         if (multiplayer && client != null) {
             if (player.isAlive()) {
-                client.sendPlayerUpdate(player.getX(), player.getY(), player.getHealth(), true, player.getRotationAngleDeg(), player.getUsername(), player.getKills());
+                client.queuePlayerUpdate(true, player.getRotationAngleDeg());
             } else {
-                client.sendPlayerUpdate(player.getX(), player.getY(), 0, false, player.getRotationAngleDeg(), player.getUsername(), player.getKills());
+                // asking to respawn once the delay is over
+                client.queuePlayerUpdate(player.shouldRespawn(), player.getRotationAngleDeg());
             }
+            client.sendQueuedUpdate(dt);
         }
     }
 
@@ -473,70 +629,49 @@ public class GameScreen implements Screen {
      * @param dt time delta since last frame, in seconds
      */
     private void updateBullets(float dt) {
-        synchronized (bulletsLock) {
-            for (Iterator<Bullet> it = bullets.iterator(); it.hasNext();) {
-                Bullet b = it.next();
-                b.update(dt);
-                if (b.isOutOfBounds(WORLD_WIDTH, WORLD_HEIGHT) || b.isExpired()) {
+        for (Iterator<Bullet> it = bullets.iterator(); it.hasNext();) {
+            Bullet b = it.next();
+            b.update(dt);
+            if (b.isOutOfBounds(WORLD_WIDTH, WORLD_HEIGHT) || b.isExpired()) {
+                it.remove();
+                continue;
+            }
+            Circle bc = new Circle(b.getX(), b.getY(), b.getRadius());
+            for (Rectangle r : map.getObstacles()) {
+                if (Intersector.overlaps(bc, r)) {
+                    b.stop();
                     it.remove();
-                    continue;
-                }
-                Circle bc = new Circle(b.getX(), b.getY(), b.getRadius());
-                for (Rectangle r : map.getObstacles()) {
-                    if (Intersector.overlaps(bc, r)) {
-                        b.stop();
-                        it.remove();
-                        break;
-                    }
+                    break;
                 }
             }
         }
     }
 
     /**
-     * Detects and handles bullet collisions with the player or other players.
-     * Adds damage.
+     * Removes bullets that visibly hit the player or other players. Damage is
+     * not applied here, the server decides hits and sends them back.
      */
     private void checkBulletCollisions() {
-        if (!player.isAlive() || client == null) {
+        if (client == null) {
             return;
         }
-        
-        Map<Integer, PlayerData> others;
-        synchronized (client.getOtherPlayers()) {
-            others = new HashMap<>(client.getOtherPlayers());
-        }
-        
-        synchronized (bulletsLock) {
-            for (Iterator<Bullet> it = bullets.iterator(); it.hasNext();) {
-                Bullet b = it.next();
-                if (b.isStopped()) {
-                    continue;
-                }
-                Circle bc = new Circle(b.getX(), b.getY(), b.getRadius());
-                if (b.getOwnerId() != client.getClientId() && Intersector.overlaps(bc, player.getHitbox())) {
-                    player.takeDamage(b.getDamage());
+
+        for (Iterator<Bullet> it = bullets.iterator(); it.hasNext();) {
+            Bullet b = it.next();
+            if (b.isStopped()) {
+                continue;
+            }
+            Circle bc = new Circle(b.getX(), b.getY(), b.getRadius());
+            if (b.getOwnerId() != client.getClientId() && player.isAlive() && Intersector.overlaps(bc, player.getHitbox())) {
+                b.stop();
+                it.remove();
+                continue;
+            }
+            for (PlayerData targetData : client.getOtherPlayers().values()) {
+                if (targetData.id != b.getOwnerId() && targetData.alive && Intersector.overlaps(bc, targetData.hitbox)) {
                     b.stop();
                     it.remove();
-                    continue;
-                }
-                if (b.getOwnerId() == client.getClientId()) {
-                    for (Map.Entry<Integer, PlayerData> e : others.entrySet()) {
-                        PlayerData targetData = e.getValue();
-                        if (targetData.alive && Intersector.overlaps(bc, targetData.hitbox)) {
-                            boolean fatal = targetData.health <= b.getDamage();
-                            if (fatal) {
-                                player.incrementKills();
-                                client.sendPlayerUpdate(player.getX(), player.getY(), player.getHealth(),
-                                        player.isAlive(), player.getRotationAngleDeg(),
-                                        player.getUsername(), player.getKills());
-                            }
-                            client.sendPlayerHit(e.getKey(), b.getDamage(), player.getKills());
-                            b.stop();
-                            it.remove();
-                            break;
-                        }
-                    }
+                    break;
                 }
             }
         }
@@ -551,23 +686,19 @@ public class GameScreen implements Screen {
      * Updates the leaderboard list.
      */
     private void updateLeaderboard() {
-        synchronized (leaderboard) {
-            leaderboard.clear();
-            localPlayerScore = new PlayerScore(player.getUsername(), player.getKills());
-            leaderboard.add(localPlayerScore);
-            
-            if (multiplayer && client != null) {
-                synchronized (client.getOtherPlayers()) {
-                    for (PlayerData otherPlayer : client.getOtherPlayers().values()) {
-                        if (otherPlayer.enemyPlayer != null) {
-                            leaderboard.add(new PlayerScore(otherPlayer.enemyPlayer.getUsername(),
-                                    otherPlayer.enemyPlayer.getKills()));
-                        }
-                    }
+        leaderboard.clear();
+        localPlayerScore = new PlayerScore(player.getUsername(), player.getKills());
+        leaderboard.add(localPlayerScore);
+        
+        if (multiplayer && client != null) {
+            for (PlayerData otherPlayer : client.getOtherPlayers().values()) {
+                if (otherPlayer.enemyPlayer != null) {
+                    leaderboard.add(new PlayerScore(otherPlayer.enemyPlayer.getUsername(),
+                            otherPlayer.enemyPlayer.getKills()));
                 }
             }
-            leaderboard.sort((a, b) -> Integer.compare(b.kills, a.kills));
         }
+        leaderboard.sort((a, b) -> Integer.compare(b.kills, a.kills));
     }
 
     /**
@@ -636,6 +767,7 @@ public class GameScreen implements Screen {
 
     @Override
     public void dispose() {
+        cancelConnect(null);
         shapeRenderer.dispose();
         map.dispose();
         player.dispose();
@@ -648,45 +780,14 @@ public class GameScreen implements Screen {
      * Resets everything in the game.
      */
     public void resetGameState() {
-        synchronized (bulletsLock) {
-            bullets.clear();
-        }
-        // reset all player states
-        player.setKills(0);
-        player.setHealth(200f);
-        player.setAlive(true);
-        
-        if (multiplayer && client != null && client.getClient().isConnected()) {
-            client.sendPlayerUpdate(
-                player.getX(), 
-                player.getY(), 
-                200f,
-                true,
-                player.getRotationAngleDeg(), 
-                player.getUsername(), 
-                0
-            );
-            
-            synchronized (client.getOtherPlayers()) {
-                for (PlayerData otherPlayer : client.getOtherPlayers().values()) {
-                    if (otherPlayer.enemyPlayer != null) {
-                        otherPlayer.enemyPlayer.setKills(0);
-                        otherPlayer.enemyPlayer.setAlive(true);
-                        otherPlayer.enemyPlayer.setHealth(200f);
-                    }
-                }
-            }
-            
-            Map<Integer, Circle> otherPlayersHitboxes = new HashMap<>();
-            synchronized (client.getOtherPlayers()) {
-                for (Map.Entry<Integer, PlayerData> entry : client.getOtherPlayers().entrySet()) {
-                    if (entry.getValue().alive) {
-                        otherPlayersHitboxes.put(entry.getKey(), entry.getValue().hitbox);
-                    }
-                }
-            }
-            player.respawn(WORLD_WIDTH, WORLD_HEIGHT, otherPlayersHitboxes, map.getObstacles());
-        } else {
+        bullets.clear();
+
+        // the server resets kills and places everyone for a multiplayer round,
+        // which comes back through the snapshots
+        if (!multiplayer || client == null || !client.isConnected()) {
+            player.setKills(0);
+            player.setHealth(200f);
+            player.setAlive(true);
             player.respawn(WORLD_WIDTH, WORLD_HEIGHT, map.getObstacles());
         }
         
@@ -0,0 +1,72 @@
+package io.github.shooter.multiplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Feeds made up ping round trips to a ClockSync against a server clock that
+ * runs OFFSET ms ahead.
+ */
+public class ClockSyncTest {
+
+    /**
+     * Server time minus local time (ms)
+     */
+    private static final long OFFSET = 4000;
+
+    private final ClockSync clock = new ClockSync();
+
+    @Test
+    public void firstPingSetsEverything() {
+        assertFalse(clock.hasSample());
+        ping(1000, 50, 50);
+
+        assertTrue(clock.hasSample());
+        assertEquals(OFFSET, clock.getOffset(), 0);
+        assertEquals(2000 + OFFSET, clock.toServerTime(2000));
+        assertEquals(100f, clock.getSmoothedRtt(), 0);
+        assertEquals(50f, clock.getJitter(), 0);
+        assertEquals(100, clock.getMinRtt());
+    }
+
+    @Test
+    public void slowLopsidedPingsDontSkewTheOffset() {
+        ping(1000, 20, 20);
+        for (int i = 1; i < ClockSync.SAMPLES; i++) {
+            // held up on the way there, so the midpoint guess is 150 ms off
+            ping(1000 + i * 1000, 320, 20);
+        }
+
+        assertTrue(clock.isSettled());
+        assertEquals(OFFSET, clock.getOffset(), 0);
+        assertEquals(40, clock.getMinRtt());
+        assertTrue(clock.getSmoothedRtt() > 40);
+        assertTrue(clock.getJitter() > 0);
+    }
+
+    @Test
+    public void smallChangesAreEasedAndBigOnesTaken() {
+        ping(1000, 50, 50);
+        // a faster ping 40 ms off only moves the offset a quarter of the way
+        clock.addSample(2000, 2000 + OFFSET + 40 + 20, 2040);
+        assertEquals(OFFSET + 10, clock.getOffset(), 0.01f);
+
+        // the server clock jumped, which is taken as is
+        clock.addSample(3000, 3000 + OFFSET + 1000 + 10, 3020);
+        assertEquals(OFFSET + 1000, clock.getOffset(), 0.01f);
+    }
+
+    /**
+     * Adds a ping that takes the given time on each leg.
+     *
+     * @param sent local time the ping was sent (ms)
+     * @param there time to reach the server (ms)
+     * @param back time to come back (ms)
+     */
+    private void ping(long sent, long there, long back) {
+        clock.addSample(sent, sent + there + OFFSET, sent + there + back);
+    }
+}
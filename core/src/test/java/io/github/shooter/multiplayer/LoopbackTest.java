@@ -0,0 +1,211 @@
+package io.github.shooter.multiplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.badlogic.gdx.math.Circle;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+
+import io.github.shooter.game.Player;
+import io.github.shooter.game.weapons.GunFactory;
+import io.github.shooter.multiplayer.GameClient.PlayerData;
+import io.github.shooter.multiplayer.Network.WorldSnapshot;
+
+/**
+ * Plays a short game between two clients joined to a server in memory, with
+ * no ports opened. The map has no obstacles, so the players can walk and
+ * shoot in a straight line wherever they spawn.
+ */
+public class LoopbackTest {
+
+    /**
+     * Longest wait for something to come through (ms)
+     */
+    private static final long TIMEOUT = 10000;
+    /**
+     * Time between the clients' frames (ms)
+     */
+    private static final long FRAME = 16;
+    /**
+     * How far the second player walks to show the move reaches the first
+     */
+    private static final float WALK = 150f;
+    /**
+     * How close the shooter walks to the target before firing
+     */
+    private static final float SHOT_RANGE = 150f;
+
+    private final Array<Rectangle> noObstacles = new Array<>();
+    private GameServer server;
+    private GameClient[] clients;
+    /**
+     * Each client's own player, moved by its inputs and corrected by the
+     * server like GameScreen does
+     */
+    private final Circle[] hitboxes = {
+        new Circle(0, 0, ServerWorld.PLAYER_RADIUS), new Circle(0, 0, ServerWorld.PLAYER_RADIUS)
+    };
+    /**
+     * Whether each client has heard where the server spawned it
+     */
+    private final boolean[] spawned = new boolean[2];
+    /**
+     * Where each client is walking to, null to stand still
+     */
+    private final Vector2[] targets = new Vector2[2];
+
+    @Before
+    public void start() throws IOException {
+        server = new GameServer(GameServer.DEFAULT_ROOM_SIZE, false, noObstacles);
+        clients = new GameClient[] {new GameClient(server), new GameClient(server)};
+    }
+
+    @After
+    public void stop() {
+        for (GameClient client : clients) {
+            client.close();
+        }
+        server.stop();
+    }
+
+    @Test
+    public void clientsJoinAndGetSnapshots() {
+        join();
+        assertEquals(1, server.getRoomCount());
+
+        // snapshots keep coming, so a walk on one client shows up on the other
+        float startX = hitboxes[1].x;
+        float endX = startX < ServerWorld.WORLD_WIDTH / 2 ? startX + WALK : startX - WALK;
+        walk(1, endX, hitboxes[1].y, 0);
+        pumpUntil("the walk to show up", () -> isAt(0, 1));
+        assertTrue(Math.abs(hitboxes[1].x - startX) > WALK - ServerWorld.PLAYER_RADIUS);
+    }
+
+    @Test
+    public void hitMakesTheRoundTrip() {
+        join();
+        walk(0, hitboxes[1].x, hitboxes[1].y, SHOT_RANGE);
+        pumpUntil("the shooter to be seen in place", () -> isAt(1, 0));
+        // lets the server's position history catch up, so the rewound shot sees the new spots
+        pumpFor((ServerWorld.MAX_REWIND_TICKS + 2) * 1000L / Network.TICK_RATE);
+
+        final int[] hitBy = {0};
+        GameClient shooter = clients[0];
+        GameClient target = clients[1];
+        target.getListener().setPlayerHitListener((sourceId, damage, fatal) -> hitBy[0] = sourceId);
+        PlayerData seen = shooter.getOtherPlayers().get(target.getClientId());
+        float x = NetworkSerializers.quantizePosition(hitboxes[0].x, ServerWorld.WORLD_WIDTH);
+        float y = NetworkSerializers.quantizePosition(hitboxes[0].y, ServerWorld.WORLD_HEIGHT);
+        float aim = MathUtils.atan2(seen.y - y, seen.x - x) * MathUtils.radiansToDegrees;
+        shooter.sendShot(GunFactory.GunType.SNIPER_RIFLE, 0, x, y, NetworkSerializers.quantizeAngle(aim));
+
+        pumpUntil("the hit to reach the target", () -> hitBy[0] == shooter.getClientId());
+        pumpUntil("the hit to reach the shooter",
+                () -> shooter.getOtherPlayers().get(target.getClientId()).health < ServerWorld.MAX_HEALTH);
+    }
+
+    /**
+     * Joins both clients and waits until each knows where it spawned and has
+     * the other, name and all.
+     */
+    private void join() {
+        clients[0].sendJoinRequest("first");
+        clients[1].sendJoinRequest("second");
+        pumpUntil("both players to join", () -> spawned[0] && spawned[1]
+                && clients[0].getOtherPlayers().containsKey(clients[1].getClientId())
+                && clients[1].getOtherPlayers().containsKey(clients[0].getClientId())
+                && "second".equals(clients[0].getUsername(clients[1].getClientId()))
+                && "first".equals(clients[1].getUsername(clients[0].getClientId())));
+    }
+
+    /**
+     * Walks a player towards a spot until they are close enough.
+     *
+     * @param player index of the client
+     * @param x x of the spot
+     * @param y y of the spot
+     * @param stopAt how close to the spot to stop
+     */
+    private void walk(int player, float x, float y, float stopAt) {
+        targets[player] = new Vector2(x, y);
+        float limit = Math.max(stopAt, 1);
+        pumpUntil("the walk to end", () -> Vector2.dst(hitboxes[player].x, hitboxes[player].y, x, y) <= limit);
+        targets[player] = null;
+    }
+
+    /**
+     * Returns whether one client draws the other where the other has itself.
+     */
+    private boolean isAt(int viewer, int player) {
+        PlayerData data = clients[viewer].getOtherPlayers().get(clients[player].getClientId());
+        return data != null && Math.abs(data.x - hitboxes[player].x) < 1 && Math.abs(data.y - hitboxes[player].y) < 1;
+    }
+
+    /**
+     * Runs frames on both clients until a condition holds, failing the test
+     * if it doesn't in time.
+     */
+    private void pumpUntil(String what, BooleanSupplier done) {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (!done.getAsBoolean()) {
+            if (System.currentTimeMillis() > end) {
+                fail("Timed out waiting for " + what);
+            }
+            frame();
+        }
+        assertTrue(clients[0].isConnected() && clients[1].isConnected());
+    }
+
+    /**
+     * Runs frames on both clients for a while.
+     */
+    private void pumpFor(long millis) {
+        long end = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < end) {
+            frame();
+        }
+    }
+
+    /**
+     * Runs one frame on each client the way GameScreen does, minus drawing:
+     * corrects the player against the server, records one input towards its
+     * target if it has one and sends the update.
+     */
+    private void frame() {
+        for (int i = 0; i < clients.length; i++) {
+            GameClient client = clients[i];
+            client.processEvents();
+            client.interpolateOtherPlayers();
+            WorldSnapshot ack = client.acknowledgeInputs();
+            if (ack != null && ack.alive) {
+                client.replayInputs(ack, hitboxes[i], noObstacles, ServerWorld.WORLD_WIDTH, ServerWorld.WORLD_HEIGHT);
+                spawned[i] = true;
+            }
+            if (spawned[i] && targets[i] != null) {
+                Vector2 vel = new Vector2(targets[i].x - hitboxes[i].x, targets[i].y - hitboxes[i].y)
+                        .limit(Network.MAX_MOVE_SPEED * Network.INPUT_STEP).scl(1f / Network.INPUT_STEP);
+                client.recordInput(vel);
+                Player.move(hitboxes[i], vel.x, vel.y, Network.INPUT_STEP, ServerWorld.WORLD_WIDTH,
+                        ServerWorld.WORLD_HEIGHT, noObstacles);
+            }
+            client.queuePlayerUpdate(true, 0);
+            client.sendQueuedUpdate(FRAME / 1000f);
+        }
+        try {
+            Thread.sleep(FRAME);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package io.github.shooter.multiplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.esotericsoftware.kryonet.Connection;
+
+import io.github.shooter.multiplayer.Network.MessageBatch;
+import io.github.shooter.multiplayer.Network.PlayerHit;
+import io.github.shooter.multiplayer.Network.ShotFired;
+import io.github.shooter.multiplayer.Network.WorldSnapshot;
+
+/**
+ * Checks that a congested connection's write buffer drains again, using a
+ * fake connection that sends a fixed number of bytes per tick.
+ */
+public class MessageBatcherTest {
+
+    /**
+     * Connection ID of the client the batcher sends to
+     */
+    private static final int CLIENT_ID = 1;
+    /**
+     * Bytes each message is counted as
+     */
+    private static final int MESSAGE_BYTES = 20;
+    /**
+     * Bytes the fake network gets out of the write buffer each tick
+     */
+    private static final int SENT_PER_TICK = 400;
+    /**
+     * Hits between other players queued each tick, more than the network can
+     * carry
+     */
+    private static final int OTHER_HITS_PER_TICK = 40;
+    /**
+     * Ticks simulated
+     */
+    private static final int TICKS = 300;
+
+    @Test
+    public void pendingBytesFallUnderCongestion() {
+        FakeConnection connection = new FakeConnection(true);
+        MessageBatcher batcher = new MessageBatcher(connection);
+        int peak = 0;
+        boolean fell = false;
+        for (int tick = 0; tick < TICKS; tick++) {
+            queueTick(batcher);
+            int before = connection.pending;
+            batcher.flush();
+            connection.send(SENT_PER_TICK);
+            if (before > MessageBatcher.CONGESTED_BYTES && connection.pending < before) {
+                fell = true;
+            }
+            peak = Math.max(peak, connection.pending);
+        }
+
+        assertTrue("never got congested", peak > MessageBatcher.CONGESTED_BYTES);
+        assertTrue("pending bytes never fell while congested", fell);
+        int oneTick = (OTHER_HITS_PER_TICK + 2) * MESSAGE_BYTES;
+        assertTrue("peaked at " + peak, peak <= MessageBatcher.CONGESTED_BYTES + oneTick);
+        assertTrue("would have been dropped at " + peak, peak < Room.SHED_BYTES);
+        // nothing the client needs was lost
+        assertEquals(TICKS, connection.count(CLIENT_ID, false));
+        assertEquals(TICKS, connection.count(3, true));
+    }
+
+    @Test
+    public void unreliableMessagesAreThinnedWithoutUdp() {
+        FakeConnection connection = new FakeConnection(false);
+        MessageBatcher batcher = new MessageBatcher(connection);
+        connection.pending = MessageBatcher.CONGESTED_BYTES + 1;
+        for (int i = 0; i < 5; i++) {
+            ShotFired shot = new ShotFired();
+            shot.playerId = 2;
+            batcher.queueUnreliable(shot);
+        }
+        batcher.queueUnreliable(new WorldSnapshot());
+        batcher.flush();
+
+        assertTrue(batcher.isCongested());
+        assertEquals(1, connection.delivered.size());
+        assertTrue(connection.delivered.get(0) instanceof WorldSnapshot);
+
+        connection.delivered.clear();
+        connection.pending = MessageBatcher.BACKED_UP_BYTES + 1;
+        batcher.queueUnreliable(new WorldSnapshot());
+        batcher.flush();
+        assertEquals(0, connection.delivered.size());
+    }
+
+    /**
+     * Queues one tick of traffic for a busy room: plenty of hits between
+     * other players, one hit on the client, one kill between others and a
+     * snapshot.
+     */
+    private static void queueTick(MessageBatcher batcher) {
+        for (int i = 0; i < OTHER_HITS_PER_TICK; i++) {
+            batcher.queueTCP(hit(2, 3, false));
+        }
+        batcher.queueTCP(hit(2, CLIENT_ID, false));
+        batcher.queueTCP(hit(2, 3, true));
+        batcher.queueUnreliable(new WorldSnapshot());
+    }
+
+    private static PlayerHit hit(int sourceId, int targetId, boolean fatal) {
+        PlayerHit hit = new PlayerHit();
+        hit.sourceId = sourceId;
+        hit.targetId = targetId;
+        hit.fatal = fatal;
+        return hit;
+    }
+
+    /**
+     * A connection whose TCP write buffer only empties as fast as the test
+     * says, and which keeps everything handed to it.
+     */
+    private static class FakeConnection extends Connection {
+
+        final boolean udp;
+        final List<Object> delivered = new ArrayList<>();
+        int pending;
+
+        FakeConnection(boolean udp) {
+            this.udp = udp;
+        }
+
+        void send(int bytes) {
+            pending = Math.max(0, pending - bytes);
+        }
+
+        int count(int targetId, boolean fatal) {
+            int count = 0;
+            for (Object message : delivered) {
+                if (message instanceof PlayerHit && ((PlayerHit) message).targetId == targetId
+                        && ((PlayerHit) message).fatal == fatal) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private void deliver(Object object) {
+            if (object instanceof MessageBatch) {
+                for (Object message : ((MessageBatch) object).messages) {
+                    delivered.add(message);
+                }
+            } else {
+                delivered.add(object);
+            }
+        }
+
+        @Override
+        public int sendTCP(Object object) {
+            int before = delivered.size();
+            deliver(object);
+            int bytes = (delivered.size() - before) * MESSAGE_BYTES;
+            pending += bytes;
+            return bytes;
+        }
+
+        @Override
+        public int sendUDP(Object object) {
+            deliver(object);
+            return MESSAGE_BYTES;
+        }
+
+        @Override
+        public int getID() {
+            return CLIENT_ID;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public int getTcpWriteBufferSize() {
+            return pending;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddressUDP() {
+            return udp ? InetSocketAddress.createUnresolved("client", Network.udpPort) : null;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package io.github.shooter.multiplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import io.github.shooter.multiplayer.Network.InputCommand;
+import io.github.shooter.multiplayer.Network.PlayerUpdate;
+import io.github.shooter.multiplayer.Network.ShotFired;
+
+/**
+ * Sends the packed messages through Kryo and checks what comes out the other
+ * end is what the quantizing helpers say it should be.
+ */
+public class NetworkSerializersTest {
+
+    /**
+     * Largest error a 16 bit angle can have (degrees)
+     */
+    private static final float ANGLE_ERROR = 360f / 65536;
+
+    private final Kryo kryo = new Kryo();
+
+    public NetworkSerializersTest() {
+        Network.register(kryo);
+    }
+
+    @Test
+    public void playerUpdateKeepsInputsAsRounded() {
+        PlayerUpdate update = new PlayerUpdate();
+        update.sequence = 1234;
+        update.rotation = 123.4f;
+        update.alive = false;
+        update.inputs = new InputCommand[] {input(500, 37.3f, -200f), input(501, 999f, 0.4f)};
+
+        PlayerUpdate read = roundTrip(update, PlayerUpdate.class);
+
+        assertEquals(1234, read.sequence);
+        assertEquals(123.4f, read.rotation, ANGLE_ERROR);
+        assertFalse(read.alive);
+        assertEquals(2, read.inputs.length);
+        for (int i = 0; i < 2; i++) {
+            assertEquals(500 + i, read.inputs[i].sequence);
+            // the client predicts with quantizeMove, so the server has to get exactly that
+            assertEquals(NetworkSerializers.quantizeMove(update.inputs[i].moveX), read.inputs[i].moveX, 0);
+            assertEquals(NetworkSerializers.quantizeMove(update.inputs[i].moveY), read.inputs[i].moveY, 0);
+        }
+        assertEquals(Network.MAX_MOVE_SPEED, read.inputs[1].moveX, 0);
+    }
+
+    @Test
+    public void negativeRotationWrapsAround() {
+        PlayerUpdate update = new PlayerUpdate();
+        update.rotation = -90f;
+
+        assertEquals(270f, roundTrip(update, PlayerUpdate.class).rotation, ANGLE_ERROR);
+    }
+
+    @Test(expected = KryoException.class)
+    public void tooManyInputsAreRejected() {
+        PlayerUpdate update = new PlayerUpdate();
+        update.inputs = new InputCommand[Network.MAX_INPUTS_PER_UPDATE + 1];
+        for (int i = 0; i < update.inputs.length; i++) {
+            update.inputs[i] = input(i, 0, 0);
+        }
+        roundTrip(update, PlayerUpdate.class);
+    }
+
+    @Test
+    public void shotFiredRoundsPositionToTheGrid() {
+        ShotFired shot = new ShotFired();
+        shot.playerId = 7;
+        shot.weapon = 2;
+        shot.sequence = 40;
+        shot.count = 5;
+        shot.x = 1000.123f;
+        shot.y = -50f;
+        shot.aim = 359.999f;
+
+        ShotFired read = roundTrip(shot, ShotFired.class);
+
+        assertEquals(7, read.playerId);
+        assertEquals(2, read.weapon);
+        assertEquals(40, read.sequence);
+        assertEquals(5, read.count);
+        assertEquals(NetworkSerializers.quantizePosition(shot.x, ServerWorld.WORLD_WIDTH), read.x, 0);
+        // off the map is clamped to the edge
+        assertEquals(0f, read.y, 0);
+        // rounds up past the last step and wraps to 0
+        assertEquals(0f, read.aim, 0);
+    }
+
+    private static InputCommand input(int sequence, float moveX, float moveY) {
+        InputCommand command = new InputCommand();
+        command.sequence = sequence;
+        command.moveX = moveX;
+        command.moveY = moveY;
+        return command;
+    }
+
+    private <T> T roundTrip(T message, Class<T> type) {
+        Output output = new Output(256, -1);
+        kryo.writeObject(output, message);
+        return kryo.readObject(new Input(output.toBytes()), type);
+    }
+}
@@ -0,0 +1,70 @@
+package io.github.shooter.multiplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Looks up ticks in a position history, including after it has wrapped
+ * around.
+ */
+public class PositionHistoryTest {
+
+    private final float[] out = new float[2];
+
+    @Test
+    public void emptyHistoryFindsNothing() {
+        assertFalse(new PositionHistory(4).find(10, out));
+    }
+
+    @Test
+    public void findsNewestRecordAtOrBeforeTick() {
+        PositionHistory history = new PositionHistory(8);
+        history.record(10, 1, 1, true);
+        history.record(12, 2, 2, true);
+        history.record(15, 3, 3, false);
+
+        assertTrue(history.find(12, out));
+        assertEquals(2f, out[0], 0);
+        assertTrue(history.find(14, out));
+        assertEquals(2f, out[0], 0);
+        assertFalse(history.find(15, out));
+        assertEquals(3f, out[0], 0);
+        history.find(100, out);
+        assertEquals(3f, out[0], 0);
+        // older than anything kept gives the oldest
+        history.find(5, out);
+        assertEquals(1f, out[0], 0);
+    }
+
+    @Test
+    public void oldestRecordsAreOverwritten() {
+        PositionHistory history = new PositionHistory(4);
+        for (int tick = 1; tick <= 10; tick++) {
+            history.record(tick, tick * 10, -tick, true);
+        }
+
+        for (int tick = 7; tick <= 10; tick++) {
+            history.find(tick, out);
+            assertEquals(tick * 10f, out[0], 0);
+            assertEquals(-tick, out[1], 0);
+        }
+        history.find(3, out);
+        assertEquals(70f, out[0], 0);
+    }
+
+    @Test
+    public void sameTickReplacesLastRecord() {
+        PositionHistory history = new PositionHistory(4);
+        history.record(1, 10, 10, true);
+        history.record(2, 20, 20, true);
+        history.record(2, 25, 25, false);
+
+        assertFalse(history.find(2, out));
+        assertEquals(25f, out[0], 0);
+        history.find(1, out);
+        assertEquals(10f, out[0], 0);
+    }
+}
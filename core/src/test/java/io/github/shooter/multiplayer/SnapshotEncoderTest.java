@@ -0,0 +1,131 @@
+package io.github.shooter.multiplayer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import io.github.shooter.multiplayer.Network.PlayerState;
+import io.github.shooter.multiplayer.Network.WorldSnapshot;
+
+/**
+ * Encodes snapshots for a few players and decodes them again the way the
+ * client does.
+ */
+public class SnapshotEncoderTest {
+
+    private final SnapshotEncoder encoder = new SnapshotEncoder();
+    private final SnapshotDecoder decoder = new SnapshotDecoder();
+
+    @Test
+    public void firstSnapshotIsAFullKeyframe() {
+        WorldSnapshot snapshot = encoder.encode(1, players());
+
+        assertEquals(-1, snapshot.baselineTick);
+        assertEquals(3, snapshot.players.length);
+        for (PlayerState state : snapshot.players) {
+            assertEquals(PlayerState.ALL, state.changed);
+        }
+        assertEquals(3, decoder.decode(snapshot).size());
+    }
+
+    @Test
+    public void deltaOnlyHoldsWhatChanged() {
+        List<PlayerState> states = players();
+        decoder.decode(encoder.encode(1, states));
+        encoder.ack(1);
+
+        PlayerState hurt = state(3, 200, 200);
+        hurt.health = 50;
+        states.set(1, hurt);
+        states.remove(2);
+        WorldSnapshot snapshot = encoder.encode(2, states);
+
+        assertEquals(1, snapshot.baselineTick);
+        assertEquals(1, snapshot.players.length);
+        assertEquals(3, snapshot.players[0].id);
+        assertEquals(PlayerState.HEALTH, snapshot.players[0].changed);
+        assertArrayEquals(new int[] {4}, snapshot.removed);
+        Map<Integer, PlayerState> view = decoder.decode(snapshot);
+        assertEquals(2, view.size());
+        assertEquals(100f, view.get(2).x, 0);
+        assertEquals(50f, view.get(3).health, 0);
+        assertEquals(200f, view.get(3).x, 0);
+    }
+
+    @Test
+    public void keyframeIsForcedEveryInterval() {
+        List<PlayerState> states = players();
+        decoder.decode(encoder.encode(1, states));
+        encoder.ack(1);
+
+        WorldSnapshot delta = encoder.encode(SnapshotEncoder.KEYFRAME_INTERVAL, states);
+        assertEquals(1, delta.baselineTick);
+        assertEquals(0, delta.players.length);
+        WorldSnapshot keyframe = encoder.encode(1 + SnapshotEncoder.KEYFRAME_INTERVAL, states);
+        assertEquals(-1, keyframe.baselineTick);
+        assertEquals(3, keyframe.players.length);
+    }
+
+    @Test
+    public void decoderSkipsMissingBaselinesAndOldTicks() {
+        List<PlayerState> states = players();
+        WorldSnapshot first = encoder.encode(1, states);
+        encoder.ack(1);
+        states.set(0, state(2, 110, 100));
+        WorldSnapshot second = encoder.encode(2, states);
+
+        // the keyframe it builds on was lost
+        assertNull(decoder.decode(second));
+        assertEquals(3, decoder.decode(first).size());
+        assertEquals(110f, decoder.decode(second).get(2).x, 0);
+        // arriving again, or late, doesn't move anyone back
+        assertNull(decoder.decode(first));
+    }
+
+    @Test
+    public void deferredPlayersAreTold() {
+        List<PlayerState> states = players();
+        decoder.decode(encoder.encode(1, states));
+        encoder.ack(1);
+
+        states.set(0, state(2, 110, 100));
+        states.set(2, state(4, 310, 300));
+        Map<Integer, Float> weights = new HashMap<>();
+        weights.put(2, 0.1f);
+        WorldSnapshot snapshot = encoder.encode(2, states, weights);
+
+        // 2 moved but has to wait, 3 stood still, 4 moved and is sent
+        assertEquals(1, snapshot.players.length);
+        assertEquals(4, snapshot.players[0].id);
+        assertArrayEquals(new int[] {2}, snapshot.deferred);
+        Map<Integer, PlayerState> view = decoder.decode(snapshot);
+        assertEquals(100f, view.get(2).x, 0);
+        assertEquals(200f, view.get(3).x, 0);
+        assertEquals(310f, view.get(4).x, 0);
+    }
+
+    private static List<PlayerState> players() {
+        List<PlayerState> states = new ArrayList<>();
+        states.add(state(2, 100, 100));
+        states.add(state(3, 200, 200));
+        states.add(state(4, 300, 300));
+        return states;
+    }
+
+    private static PlayerState state(int id, float x, float y) {
+        PlayerState state = new PlayerState();
+        state.id = id;
+        state.x = x;
+        state.y = y;
+        state.health = ServerWorld.MAX_HEALTH;
+        state.alive = true;
+        return state;
+    }
+}
@@ -0,0 +1,43 @@
+package io.github.shooter.multiplayer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks a token bucket allows a burst, refuses past it and refills over
+ * time without going past its capacity.
+ */
+public class TokenBucketTest {
+
+    @Test
+    public void burstUpToCapacityThenRefused() {
+        TokenBucket bucket = new TokenBucket(5, 1);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryTake(1));
+        }
+        assertFalse(bucket.tryTake(1));
+    }
+
+    @Test
+    public void refusedTakeCostsNothing() {
+        TokenBucket bucket = new TokenBucket(4, 1);
+        assertFalse(bucket.tryTake(5));
+        assertTrue(bucket.tryTake(4));
+    }
+
+    @Test
+    public void refillsButNeverPastCapacity() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(3, 100);
+        assertTrue(bucket.tryTake(3));
+        assertFalse(bucket.tryTake(1));
+
+        // long enough for 10 tokens, but only 3 fit
+        Thread.sleep(100);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(bucket.tryTake(1));
+        }
+        assertFalse(bucket.tryTake(1));
+    }
+}
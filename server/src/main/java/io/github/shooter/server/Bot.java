@@ -0,0 +1,247 @@
+package io.github.shooter.server;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+
+import com.badlogic.gdx.math.Circle;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.TimeUtils;
+
+import io.github.shooter.game.Player;
+import io.github.shooter.game.weapons.Gun;
+import io.github.shooter.game.weapons.GunFactory;
+import io.github.shooter.multiplayer.GameClient;
+import io.github.shooter.multiplayer.GameClient.PlayerData;
+import io.github.shooter.multiplayer.Network;
+import io.github.shooter.multiplayer.Network.WorldSnapshot;
+import io.github.shooter.multiplayer.NetworkSerializers;
+import io.github.shooter.multiplayer.ServerWorld;
+
+/**
+ * A simulated player for load testing: a real GameClient driven by a script
+ * instead of a keyboard and mouse. It wanders around, aims at the nearest
+ * player it knows about and fires in bursts with a real gun, so it sends the
+ * same messages at the same rates as someone playing. Nothing is drawn. A
+ * bot's frames run one at a time on whichever pool thread picks them up.
+ */
+class Bot {
+
+    /**
+     * Walking speed, same as the local player in GameScreen
+     */
+    private static final float SPEED = 200f;
+    /**
+     * Walking speed while firing
+     */
+    private static final float FIRING_SPEED = 100f;
+    /**
+     * Most frame time turned into input steps at once, same as GameScreen
+     */
+    private static final float MAX_INPUT_ACCUMULATOR = 0.25f;
+
+    /**
+     * The bot's connection to the server
+     */
+    private final GameClient client;
+    /**
+     * The map's collision rectangles, moved against like the server does
+     */
+    private final Array<Rectangle> obstacles;
+    /**
+     * Picks headings and burst lengths, seeded per bot so runs repeat
+     */
+    private final Random random;
+    /**
+     * The gun the bot fires, so its shots follow the gun's fire rate,
+     * magazine and reload time
+     */
+    private final Gun gun;
+    /**
+     * Where the bot is, predicted from its inputs and corrected by the server
+     */
+    private final Circle hitbox = new Circle(0, 0, ServerWorld.PLAYER_RADIUS);
+    /**
+     * Velocity of the next input step
+     */
+    private final Vector2 vel = new Vector2();
+    /**
+     * Direction the bot is walking in (degrees)
+     */
+    private float heading;
+    /**
+     * Seconds until the bot picks a new heading
+     */
+    private float turnTimer;
+    /**
+     * Whether the trigger is held
+     */
+    private boolean firing;
+    /**
+     * Seconds until the trigger is pressed or let go
+     */
+    private float burstTimer;
+    /**
+     * Frame time not yet turned into input steps (seconds)
+     */
+    private float inputAccumulator;
+    /**
+     * Number of the next shot fired
+     */
+    private int shotSequence;
+    /**
+     * Whether the server has said where the bot is yet
+     */
+    private boolean spawned;
+    /**
+     * Whether the bot is alive, as of the last snapshot
+     */
+    private boolean alive;
+    /**
+     * When the last frame ran (ns), 0 before the first
+     */
+    private long lastFrame;
+    /**
+     * The bot's scheduled frames, cancelled when it stops
+     */
+    private ScheduledFuture<?> future;
+
+    /**
+     * Connects a bot to the server and joins the game. Blocks until
+     * connected.
+     *
+     * @param host address of the server
+     * @param index number of the bot, used for its name and random seed
+     * @param obstacles the map's collision rectangles
+     * @throws IOException if the connection fails
+     */
+    Bot(String host, int index, Array<Rectangle> obstacles) throws IOException {
+        this.obstacles = obstacles;
+        random = new Random(index);
+        GunFactory.GunType[] types = GunFactory.GunType.values();
+        gun = GunFactory.createGun(types[index % types.length]);
+        client = new GameClient(host, false);
+        client.sendJoinRequest("bot" + index);
+    }
+
+    /**
+     * Runs one frame the way GameScreen.render does: applies what the server
+     * sent, moves, shoots and sends the results.
+     *
+     * @return false once the connection has closed
+     */
+    boolean frame() {
+        long now = TimeUtils.nanoTime();
+        float dt = lastFrame == 0 ? 0 : (now - lastFrame) / 1e9f;
+        lastFrame = now;
+
+        client.processEvents();
+        client.interpolateOtherPlayers();
+        WorldSnapshot ack = client.acknowledgeInputs();
+        if (ack != null) {
+            alive = ack.alive;
+            if (ack.alive) {
+                client.replayInputs(ack, hitbox, obstacles, ServerWorld.WORLD_WIDTH, ServerWorld.WORLD_HEIGHT);
+                spawned = true;
+            }
+        }
+
+        if (alive && spawned) {
+            float aim = aim();
+            move(dt);
+            shoot(dt, aim);
+            client.queuePlayerUpdate(true, aim);
+        } else {
+            // asks to respawn, the server holds it off until the delay is over
+            client.queuePlayerUpdate(true, heading);
+        }
+        client.updatePing();
+        client.sendQueuedUpdate(dt);
+        return client.isConnected();
+    }
+
+    /**
+     * Walks in a straight line, turning somewhere new every few seconds.
+     */
+    private void move(float dt) {
+        turnTimer -= dt;
+        if (turnTimer <= 0) {
+            heading = random.nextFloat() * 360;
+            turnTimer = 1 + random.nextFloat() * 2;
+        }
+        float speed = firing && !gun.isReloading() ? FIRING_SPEED : SPEED;
+        inputAccumulator = Math.min(inputAccumulator + dt, MAX_INPUT_ACCUMULATOR);
+        while (inputAccumulator >= Network.INPUT_STEP) {
+            inputAccumulator -= Network.INPUT_STEP;
+            vel.set(MathUtils.cosDeg(heading) * speed, MathUtils.sinDeg(heading) * speed);
+            client.recordInput(vel);
+            Player.move(hitbox, vel.x, vel.y, Network.INPUT_STEP, ServerWorld.WORLD_WIDTH, ServerWorld.WORLD_HEIGHT,
+                    obstacles);
+        }
+    }
+
+    /**
+     * Returns the direction of the nearest living player, or the way the bot
+     * is walking if it knows of nobody (degrees).
+     */
+    private float aim() {
+        PlayerData nearest = null;
+        float nearestDst = Float.MAX_VALUE;
+        for (PlayerData other : client.getOtherPlayers().values()) {
+            float dst = Vector2.dst2(hitbox.x, hitbox.y, other.x, other.y);
+            if (other.alive && dst < nearestDst) {
+                nearest = other;
+                nearestDst = dst;
+            }
+        }
+        if (nearest == null) {
+            return heading;
+        }
+        return MathUtils.atan2(nearest.y - hitbox.y, nearest.x - hitbox.x) * MathUtils.radiansToDegrees;
+    }
+
+    /**
+     * Holds the trigger for a second or two at a time and fires whenever the
+     * gun allows it, sending each shot rounded like GameScreen does.
+     */
+    private void shoot(float dt, float aim) {
+        gun.update();
+        burstTimer -= dt;
+        if (burstTimer <= 0) {
+            firing = !firing;
+            burstTimer = firing ? 0.5f + random.nextFloat() * 1.5f : 1 + random.nextFloat() * 2;
+        }
+        if (firing && gun.fire()) {
+            float x = NetworkSerializers.quantizePosition(hitbox.x, ServerWorld.WORLD_WIDTH);
+            float y = NetworkSerializers.quantizePosition(hitbox.y, ServerWorld.WORLD_HEIGHT);
+            client.sendShot(gun.getType(), shotSequence++, x, y, NetworkSerializers.quantizeAngle(aim));
+        }
+    }
+
+    /**
+     * Returns the bot's client, for reading its metrics and ping.
+     */
+    GameClient getClient() {
+        return client;
+    }
+
+    /**
+     * Sets the bot's scheduled frames so stop can cancel them.
+     */
+    void setFuture(ScheduledFuture<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * Stops running frames and closes the connection.
+     */
+    void stop() {
+        if (future != null) {
+            future.cancel(false);
+        }
+        client.close();
+    }
+}
@@ -0,0 +1,327 @@
+package io.github.shooter.server;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.TimeUtils;
+
+import io.github.shooter.game.CollisionMap;
+import io.github.shooter.multiplayer.GameServer;
+import io.github.shooter.multiplayer.MessageStats;
+import io.github.shooter.multiplayer.Network;
+import io.github.shooter.multiplayer.TickStats;
+
+/**
+ * Load tests the server with bots. Bots are added a step at a time and held
+ * at each count for a while, and every step prints one line of server CPU,
+ * tick times, message rates, what each bot receives and how many were
+ * disconnected. Stops at the first step where the server can't keep up and
+ * exits with 1, or with 0 if it made it to the last step, so it can also be
+ * run as a regression check.
+ * <p>
+ * Without a host it starts a server in this process, which is the only way
+ * server CPU and tick times can be measured. With a host only what the bots
+ * see is reported.
+ */
+public class LoadTest {
+
+    /**
+     * Bots to stop at
+     */
+    public static final int DEFAULT_MAX_BOTS = 200;
+    /**
+     * Bots added each step
+     */
+    public static final int DEFAULT_STEP = 25;
+    /**
+     * Seconds each step is held before it is measured
+     */
+    public static final int DEFAULT_STEP_SECONDS = 10;
+    /**
+     * Frames each bot runs per second
+     */
+    public static final int FRAME_RATE = 60;
+    /**
+     * Share of the tick rate each bot has to receive snapshots at for the
+     * server to count as keeping up
+     */
+    public static final float MIN_SNAPSHOT_SHARE = 0.9f;
+
+    /**
+     * Runs the load test.
+     *
+     * @param args optional most bots, defaults to DEFAULT_MAX_BOTS, bots per
+     * step, defaults to DEFAULT_STEP, seconds per step, defaults to
+     * DEFAULT_STEP_SECONDS, and server host, defaults to a server started
+     * here
+     */
+    public static void main(String[] args) {
+        int maxBots = DEFAULT_MAX_BOTS;
+        int step = DEFAULT_STEP;
+        int stepSeconds = DEFAULT_STEP_SECONDS;
+        String host = null;
+        try {
+            if (args.length > 0) {
+                maxBots = Integer.parseInt(args[0]);
+            }
+            if (args.length > 1) {
+                step = Integer.parseInt(args[1]);
+            }
+            if (args.length > 2) {
+                stepSeconds = Integer.parseInt(args[2]);
+            }
+            if (args.length > 3) {
+                host = args[3];
+            }
+        } catch (NumberFormatException e) {
+            maxBots = 0;
+        }
+        if (maxBots <= 0 || step <= 0 || stepSeconds <= 0) {
+            System.err.println("Usage: LoadTest [maxBots] [botsPerStep] [stepSeconds] [host]");
+            System.exit(1);
+        }
+
+        GameServer server = null;
+        Array<Rectangle> obstacles;
+        try {
+            if (host == null) {
+                server = new GameServer();
+                host = "localhost";
+            }
+            obstacles = CollisionMap.load("Collisions.tmx");
+        } catch (IOException e) {
+            System.err.println("Error starting load test: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        String result = new LoadTest(server, host, obstacles).run(maxBots, step, stepSeconds);
+        System.out.println(result);
+        System.exit(result.startsWith("Collapsed") ? 1 : 0);
+    }
+
+    /**
+     * Server started in this process, or null for a remote one
+     */
+    private final GameServer server;
+    /**
+     * Address the bots connect to
+     */
+    private final String host;
+    /**
+     * The map's collision rectangles, shared by every bot
+     */
+    private final Array<Rectangle> obstacles;
+    /**
+     * Bots connected so far, only touched by the main thread
+     */
+    private final List<Bot> bots = new ArrayList<>();
+    /**
+     * Runs every bot's frames
+     */
+    private final ScheduledExecutorService frames;
+    /**
+     * Number of the next bot added
+     */
+    private int nextBot = 1;
+    /**
+     * Bots whose connection closed, or that couldn't connect
+     */
+    private final AtomicInteger disconnects = new AtomicInteger();
+    /**
+     * Reads how much CPU the server's threads have used
+     */
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private LoadTest(GameServer server, String host, Array<Rectangle> obstacles) {
+        this.server = server;
+        this.host = host;
+        this.obstacles = obstacles;
+        final AtomicInteger threadCount = new AtomicInteger();
+        frames = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread t = new Thread(r, "Bot frame " + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Adds bots step by step until the server collapses or maxBots is
+     * reached.
+     *
+     * @return one line saying how far it got
+     */
+    private String run(int maxBots, int step, int stepSeconds) {
+        System.out.println("Load test against " + (server != null ? "a server in this process" : host) + ", up to "
+                + maxBots + " bots, " + step + " more every " + stepSeconds + " seconds");
+        String result = null;
+        int held = 0;
+        for (int target = Math.min(step, maxBots); result == null; target = Math.min(target + step, maxBots)) {
+            int disconnectsBefore = disconnects.get();
+            while (nextBot <= target) {
+                addBot(nextBot++);
+            }
+            result = measure(stepSeconds, disconnectsBefore);
+            if (result != null) {
+                result = "Collapsed at " + bots.size() + " bots (" + result + "), held up to " + held;
+            } else {
+                held = bots.size();
+                if (target == maxBots) {
+                    result = "Held up to " + held + " bots";
+                }
+            }
+        }
+
+        for (Bot bot : bots) {
+            bot.stop();
+        }
+        frames.shutdownNow();
+        if (server != null) {
+            server.stop();
+        }
+        return result;
+    }
+
+    /**
+     * Connects one bot and starts its frames.
+     */
+    private void addBot(int index) {
+        final Bot bot;
+        try {
+            bot = new Bot(host, index, obstacles);
+        } catch (IOException e) {
+            disconnects.incrementAndGet();
+            return;
+        }
+        bots.add(bot);
+        bot.setFuture(frames.scheduleAtFixedRate(() -> {
+            try {
+                if (!bot.frame()) {
+                    disconnects.incrementAndGet();
+                    bot.stop();
+                }
+            } catch (Exception e) {
+                // an exception here would cancel the bot's frames for good
+                System.err.println("Error in bot " + index + ": " + e.getMessage());
+            }
+        }, 0, 1000000000L / FRAME_RATE, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Waits out one step and prints what happened during it. Anything
+     * recorded while bots were still being added is thrown away first, but
+     * bots that failed to connect count.
+     *
+     * @param seconds how long to measure
+     * @param disconnectsBefore disconnects before this step's bots were added
+     * @return why the server didn't keep up, or null if it did
+     */
+    private String measure(int seconds, int disconnectsBefore) {
+        TickStats ticks = server != null ? server.getTickStats() : null;
+        if (ticks != null) {
+            ticks.drain();
+        }
+        long start = TimeUtils.nanoTime();
+        long startCpu = serverCpuTime();
+        long[] startServer = server != null ? serverTotals() : null;
+        long startSnapshots = snapshotsReceived();
+
+        try {
+            Thread.sleep(seconds * 1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "interrupted";
+        }
+
+        double elapsed = (TimeUtils.nanoTime() - start) / 1e9;
+        int lost = disconnects.get() - disconnectsBefore;
+        int connected = 0;
+        long ping = 0;
+        for (Bot bot : bots) {
+            if (bot.getClient().isConnected()) {
+                connected++;
+                ping += bot.getClient().getPing();
+            }
+        }
+        double snapshotRate = connected == 0 ? 0 : (snapshotsReceived() - startSnapshots) / elapsed / connected;
+
+        StringBuilder line = new StringBuilder(String.format("%4d bots", connected));
+        String problem = null;
+        if (server != null) {
+            TickStats window = ticks.drain();
+            long[] totals = serverTotals();
+            line.append(String.format(" | server CPU %5.1f%% of a core", (serverCpuTime() - startCpu) / 1e7 / elapsed));
+            line.append(" | ").append(window);
+            line.append(String.format(" | server sent %.0f msgs/s %.1f KB/s, received %.0f msgs/s, dropped %d",
+                    (totals[0] - startServer[0]) / elapsed, (totals[1] - startServer[1]) / elapsed / 1024,
+                    (totals[2] - startServer[2]) / elapsed, totals[3] - startServer[3]));
+            if (window.getPercentileMillis(99) > 1000.0 / Network.TICK_RATE) {
+                problem = "p99 tick over " + 1000 / Network.TICK_RATE + " ms";
+            }
+        }
+        line.append(String.format(" | per bot %.1f snapshots/s, ping %d ms | %d disconnects", snapshotRate,
+                connected == 0 ? 0 : ping / connected, lost));
+        System.out.println(line);
+
+        if (lost > 0) {
+            problem = lost + " bots disconnected";
+        } else if (snapshotRate < Network.TICK_RATE * MIN_SNAPSHOT_SHARE && problem == null) {
+            problem = "bots got " + String.format("%.1f", snapshotRate) + " of " + Network.TICK_RATE + " snapshots/s";
+        }
+        return problem;
+    }
+
+    /**
+     * Returns the CPU time used so far by the server's room ticks and
+     * Kryonet's server thread (ns). 0 without a server in this process.
+     */
+    private long serverCpuTime() {
+        if (server == null || !threads.isThreadCpuTimeSupported()) {
+            return 0;
+        }
+        long total = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            if (name.startsWith("Room tick") || name.equals("Server") || name.equals("Server loopback")) {
+                long time = threads.getThreadCpuTime(thread.getId());
+                if (time > 0) {
+                    total += time;
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the server's messages sent, bytes sent, messages received and
+     * messages dropped so far.
+     */
+    private long[] serverTotals() {
+        MessageStats total = server.getMetrics().getTotal();
+        return new long[] {total.getMessagesSent(), total.getBytesSent(), total.getMessagesReceived(),
+                total.getMessagesDropped()};
+    }
+
+    /**
+     * Returns the snapshots every bot has received so far, added up.
+     */
+    private long snapshotsReceived() {
+        long total = 0;
+        for (Bot bot : bots) {
+            Long count = bot.getClient().getMetrics().getTotal().getMessagesReceivedByType().get("WorldSnapshot");
+            if (count != null) {
+                total += count;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.shooter.server;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.github.shooter.multiplayer.GameServer;
+
+/**
+ * Runs a dedicated game server with no window, OpenGL or libGDX backend. The
+ * server only needs the collision map and the network code, so it can run on
+ * a machine without a GPU and with a small heap.
+ */
+public class ServerLauncher {
+
+    /**
+     * Seconds between network stats printed to the console
+     */
+    public static final int STATS_INTERVAL = 60;
+
+    /**
+     * Starts the server and keeps it running until the process is stopped.
+     *
+     * @param args optional seconds between stats dumps, defaults to
+     * STATS_INTERVAL (0 turns them off), then optional players per room,
+     * defaults to GameServer.DEFAULT_ROOM_SIZE
+     */
+    public static void main(String[] args) {
+        int statsInterval = STATS_INTERVAL;
+        int roomSize = GameServer.DEFAULT_ROOM_SIZE;
+        try {
+            if (args.length > 0) {
+                statsInterval = Integer.parseInt(args[0]);
+            }
+            if (args.length > 1) {
+                roomSize = Integer.parseInt(args[1]);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Usage: ServerLauncher [statsIntervalSeconds] [roomSize]");
+            System.exit(1);
+        }
+
+        final GameServer server;
+        try {
+            server = new GameServer(roomSize, true);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        } catch (IOException e) {
+            System.err.println("Error starting server: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        if (statsInterval > 0) {
+            ScheduledExecutorService stats = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "Server stats");
+                t.setDaemon(true);
+                return t;
+            });
+            stats.scheduleAtFixedRate(() -> System.out.println(server.getMetrics().dump()
+                    + String.format("%n  ticks    ") + server.getTickStats().drain()),
+                    statsInterval, statsInterval, TimeUnit.SECONDS);
+        }
+
+        final Object lock = new Object();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("Stopping server");
+            server.stop();
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }, "Server shutdown"));
+
+        // the tick thread is a daemon, so the main thread keeps the process alive
+        synchronized (lock) {
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}